@@ -0,0 +1,346 @@
+// Computer opponent. Picks a column by iterative-deepening negamax with alpha-beta pruning on a copy of the BitBoard.
+// Searches deeper each iteration until the time budget runs out, and plays the best move of the last finished iteration.
+public class AIPlayer {
+    // Scores above win_threshold are forced wins; win_score - ply prefers the quickest win (and the slowest loss)
+    static final int win_score = 1_000_000;
+    static final int win_threshold = win_score - 1000;
+    static final int infinity = Integer.MAX_VALUE - 1;
+
+    // Evaluation weights for open threats and stones in the centre column
+    static final int threat_weight = 16;
+    static final int centre_weight = 3;
+
+    // Check the clock every (time_check_interval + 1) nodes
+    static final int time_check_interval = 1023;
+    static final int default_table_bits = 18;
+
+    final long nanoseconds_per_move;
+    final TranspositionTable transposition_table;
+    // Precomputed early-game moves, consulted before searching. null to always search
+    OpeningBook opening_book;
+
+    // Columns sorted centre first, built for the width of the board being searched
+    int[] column_order = new int[0];
+    // Helper searches in ParallelAIPlayer rotate the move order and skip depths so they explore different subtrees first
+    int order_rotation = 0;
+    int depth_step = 1;
+
+    // Search state for the current move
+    long nodes;
+    long deadline;
+    boolean stopped;
+    // Score of the best move found by the last search_root, which may be from an unfinished iteration
+    int root_score;
+    // Set from another thread to end the search early. Cleared by whoever set it
+    volatile boolean cancelled = false;
+
+    // Report of the last move chosen
+    boolean last_from_book;
+    int last_depth;
+    int last_score;
+    long last_nodes;
+    long last_nanoseconds;
+    // Time from the start of the last search until each depth (index) was finished, for depths up to last_depth
+    final long[] depth_nanoseconds = new long[Long.SIZE + 1];
+
+
+    AIPlayer(long milliseconds_per_move) {
+        this(milliseconds_per_move, default_table_bits);
+    }
+
+
+    AIPlayer(long milliseconds_per_move, int table_bits) {
+        this(milliseconds_per_move, new TranspositionTable(table_bits));
+    }
+
+
+    AIPlayer(long milliseconds_per_move, TranspositionTable transposition_table) {
+        this.nanoseconds_per_move = milliseconds_per_move * 1_000_000L;
+        this.transposition_table = transposition_table;
+    }
+
+
+    // Any board size. Boards too large for a BitBoard cannot be searched, so they get a one-move lookahead instead:
+    // win if possible, else block the opponent's win, else the playable column nearest the centre.
+    // Looks ahead on a copy, so game_board is never touched
+    public int choose_column(Board game_board, int target_player) {
+        if (game_board instanceof BitBoard) {
+            return choose_column((BitBoard) game_board, target_player);
+        }
+        Board board = new LargeBitBoard((LargeBitBoard) game_board);
+        last_from_book = false;
+        last_depth = 1;
+        last_score = 0;
+        last_nodes = 0;
+        last_nanoseconds = 0;
+
+        for (int i = 0; i < 2; i++) {
+            int player = i == 0 ? target_player : 3 - target_player;
+            for (int column = 0; column < board.get_columns(); column++) {
+                if (board.insert(column, player) != -1) {
+                    boolean won = board.has_won(player);
+                    board.undo_move();
+                    if (won) {
+                        return column;
+                    }
+                }
+            }
+        }
+
+        int columns = board.get_columns();
+        for (int offset = 0; offset < columns; offset++) {
+            // Centre, then alternating left and right of it
+            int column = columns / 2 + (offset % 2 == 0 ? offset / 2 : -(offset + 1) / 2);
+            if (board.can_insert(column)) {
+                return column;
+            }
+        }
+        return -1;
+    }
+
+
+    // Returns the base-0 column to play for target_player, -1 if no column is playable
+    public int choose_column(BitBoard game_board, int target_player) {
+        int book_column = get_book_column(game_board);
+        if (book_column != -1) {
+            return book_column;
+        }
+        long start_time = System.nanoTime();
+        BitBoard board = new BitBoard(game_board);
+        set_column_order(board.columns);
+
+        nodes = 0;
+        stopped = false;
+        deadline = start_time + nanoseconds_per_move;
+
+        int best_column = -1;
+        int empty_cells = board.rows * board.columns - board.move_count;
+
+        for (int depth = depth_step; depth <= empty_cells; depth += depth_step) {
+            int column = search_root(board, target_player, depth, best_column);
+            // Unfinished iterations are thrown away, but always keep at least one playable move
+            if (stopped && best_column != -1) {
+                break;
+            }
+            best_column = column;
+            last_depth = depth;
+            last_score = root_score;
+            depth_nanoseconds[depth] = System.nanoTime() - start_time;
+            // A forced result will not change with more depth
+            if (stopped || Math.abs(last_score) >= win_threshold) {
+                break;
+            }
+        }
+
+        last_nodes = nodes;
+        last_nanoseconds = System.nanoTime() - start_time;
+        return best_column;
+    }
+
+
+    // Looks the position up in the opening book. Returns the base-0 column, -1 if there is no book move
+    public int get_book_column(BitBoard board) {
+        last_from_book = false;
+        if (opening_book == null) {
+            return -1;
+        }
+        int column = opening_book.get_column(board);
+        if (column == -1 || !board.can_insert(column)) {
+            return -1;
+        }
+        last_from_book = true;
+        last_depth = 0;
+        last_nodes = 0;
+        last_nanoseconds = 0;
+        return column;
+    }
+
+
+    // Searches every root move to depth, trying previous_best first. Returns the best column, storing its score in root_score
+    public int search_root(BitBoard board, int player, int depth, int previous_best) {
+        int alpha = -infinity;
+        int best_column = -1;
+
+        for (int i = -1; i < column_order.length; i++) {
+            int column = i == -1 ? previous_best : column_order[i];
+            if (column == -1 || (i >= 0 && column == previous_best) || !board.can_insert(column)) {
+                continue;
+            }
+            int score = score_move(board, player, column, depth, alpha, infinity, 0);
+            if (stopped && best_column != -1) {
+                break;
+            }
+            if (best_column == -1 || score > alpha) {
+                alpha = score;
+                best_column = column;
+            }
+        }
+        root_score = alpha;
+        return best_column;
+    }
+
+
+    // Negamax score of the position for player (the side to move), searching depth plies
+    public int negamax(BitBoard board, int player, int depth, int alpha, int beta, int ply) {
+        if ((++nodes & time_check_interval) == 0 && (cancelled || System.nanoTime() > deadline)) {
+            stopped = true;
+        }
+        if (stopped) {
+            return 0;
+        }
+
+        int original_alpha = alpha;
+        long key = board.get_key();
+        int table_move = -1;
+
+        // Reuse earlier results for this position
+        long entry = transposition_table.get(key);
+        if (entry != 0L) {
+            table_move = TranspositionTable.get_move(entry);
+            if (TranspositionTable.get_depth(entry) >= depth) {
+                int score = from_table_score(TranspositionTable.get_score(entry), ply);
+                switch (TranspositionTable.get_bound(entry)) {
+                    case TranspositionTable.exact:
+                        return score;
+                    case TranspositionTable.lower_bound:
+                        alpha = Math.max(alpha, score);
+                        break;
+                    case TranspositionTable.upper_bound:
+                        beta = Math.min(beta, score);
+                        break;
+                }
+                if (alpha >= beta) {
+                    return score;
+                }
+            }
+        }
+
+        int best_score = -infinity;
+        int best_column = -1;
+
+        // Best move from the table first, then centre-first order
+        for (int i = -1; i < column_order.length; i++) {
+            int column = i == -1 ? table_move : column_order[i];
+            if (column == -1 || (i >= 0 && column == table_move) || !board.can_insert(column)) {
+                continue;
+            }
+            int score = score_move(board, player, column, depth, alpha, beta, ply);
+            if (stopped) {
+                return 0;
+            }
+            if (score > best_score) {
+                best_score = score;
+                best_column = column;
+            }
+            if (score > alpha) {
+                alpha = score;
+            }
+            if (alpha >= beta) {
+                break;
+            }
+        }
+
+        int bound = best_score <= original_alpha ? TranspositionTable.upper_bound :
+            best_score >= beta ? TranspositionTable.lower_bound : TranspositionTable.exact;
+        transposition_table.put(key, to_table_score(best_score, ply), depth, bound, best_column);
+        return best_score;
+    }
+
+
+    // Plays column for player, scores the result from player's point of view and takes the move back
+    public int score_move(BitBoard board, int player, int column, int depth, int alpha, int beta, int ply) {
+        board.insert(column, player);
+        int score;
+
+        if (board.has_won(player)) {
+            score = win_score - ply - 1;
+        }
+        else if (board.is_tie()) {
+            score = 0;
+        }
+        else if (depth <= 1) {
+            score = evaluate(board, player);
+        }
+        else {
+            score = -negamax(board, 3 - player, depth - 1, -beta, -alpha, ply + 1);
+        }
+        board.undo_move();
+        return score;
+    }
+
+
+    // Static evaluation from player's point of view: open threats and centre control
+    public int evaluate(BitBoard board, int player) {
+        long empty = board.board_mask & ~board.get_mask();
+        long own_stones = board.get_stones(player);
+        long opponent_stones = board.get_stones(3 - player);
+        long centre = board.get_column_mask(board.columns / 2);
+
+        int threats = Long.bitCount(get_threats(board, own_stones, empty)) -
+            Long.bitCount(get_threats(board, opponent_stones, empty));
+        int centre_stones = Long.bitCount(own_stones & centre) - Long.bitCount(opponent_stones & centre);
+        return threats * threat_weight + centre_stones * centre_weight;
+    }
+
+
+    // Empty cells that would complete a line of positions_to_win for stones
+    public long get_threats(BitBoard board, long stones, long empty) {
+        long threats = 0L;
+
+        // Vertical, then diagonal (negative gradient), horizontal and diagonal (positive gradient)
+        for (int direction = 0; direction < 4; direction++) {
+            int shift = direction == 0 ? 1 : board.column_bits + direction - 2;
+            // The empty cell may sit at any position j of the line
+            for (int j = 0; j < board.positions_to_win; j++) {
+                long cells = empty;
+                for (int i = 0; i < board.positions_to_win && cells != 0; i++) {
+                    int offset = (i - j) * shift;
+                    if (offset > 0) {
+                        cells &= stones >>> offset;
+                    }
+                    else if (offset < 0) {
+                        cells &= stones << -offset;
+                    }
+                }
+                threats |= cells;
+            }
+        }
+        return threats;
+    }
+
+
+    // Win scores depend on distance from the root, so they are stored relative to the node instead
+    public static int to_table_score(int score, int ply) {
+        return score >= win_threshold ? score + ply : score <= -win_threshold ? score - ply : score;
+    }
+
+    public static int from_table_score(int score, int ply) {
+        return score >= win_threshold ? score - ply : score <= -win_threshold ? score + ply : score;
+    }
+
+
+    // eg: 7 columns -> 3, 2, 4, 1, 5, 0, 6
+    public void set_column_order(int columns) {
+        if (column_order.length == columns) {
+            return;
+        }
+        column_order = new int[columns];
+        for (int i = 0; i < columns; i++) {
+            int distance = (i + 1) / 2;
+            column_order[(i + order_rotation) % columns] =
+                columns / 2 + (i % 2 == 0 ? distance : -distance);
+        }
+    }
+
+
+    // Summary of the last search, eg: for printing after each move
+    public String get_search_report() {
+        if (last_from_book) {
+            return "AI played an opening book move";
+        }
+        double seconds = last_nanoseconds / 1_000_000_000.0;
+        return "AI searched depth " + last_depth + " (score " + last_score + "): " + last_nodes + " nodes in " +
+            String.format("%.1f", last_nanoseconds / 1_000_000.0) + " ms (" +
+            String.format("%,.0f", seconds > 0 ? last_nodes / seconds : 0) + " nodes/s)";
+    }
+}
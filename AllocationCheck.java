@@ -0,0 +1,108 @@
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+
+// Checks that win detection allocates nothing per call, on both the single-long BitBoard and the LargeBitBoard.
+// Replays random games, calling has_won after every move, and reads the thread's allocated bytes before and after.
+// Prints the bytes per call for each board and exits with status 1 if either allocated.
+// ie: java AllocationCheck
+public class AllocationCheck {
+    // Fixed seed so every run checks the same games
+    static final long seed = 20240102L;
+    static final int game_count = 2000;
+    // Rounds before measuring, so the JIT has compiled has_won and the measured loop is its steady state
+    static final int warmup_rounds = 20;
+    static final int measured_rounds = 10;
+
+    static final com.sun.management.ThreadMXBean thread_bean =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // Keeps results alive so the JIT cannot discard the checked work
+    static long blackhole = 0;
+
+
+    public static void main(String[] args) {
+        boolean allocated = false;
+        allocated |= check("BitBoard", Board.default_columns, Board.default_rows, Board.default_positions_to_win);
+        // Too big for one long, so Board.create returns a LargeBitBoard
+        allocated |= check("LargeBitBoard", 12, 10, 5);
+
+        if (allocated) {
+            System.out.println("has_won allocated memory; expected 0 B/call");
+            System.exit(1);
+        }
+        System.out.println("has_won allocates nothing (" + blackhole + " wins)");
+    }
+
+
+    // Returns true if has_won allocated on a columns x rows board
+    public static boolean check(String name, int columns, int rows, int positions_to_win) {
+        Board board = Board.create(columns, rows, positions_to_win);
+        int[][] games = random_games(columns, rows, positions_to_win);
+        long thread_id = Thread.currentThread().getId();
+
+        for (int i = 0; i < warmup_rounds; i++) {
+            replay(board, games);
+        }
+
+        long total_calls = 0;
+        long bytes_before = thread_bean.getThreadAllocatedBytes(thread_id);
+        for (int i = 0; i < measured_rounds; i++) {
+            total_calls += replay(board, games);
+        }
+        long total_bytes = thread_bean.getThreadAllocatedBytes(thread_id) - bytes_before;
+
+        System.out.println(String.format("%-16s%,d calls\t%.2f B/call", name, total_calls, (double) total_bytes / total_calls));
+        // Anything below a byte per call is measurement noise (eg: the bean call itself)
+        return total_bytes >= total_calls;
+    }
+
+
+    // Plays every game onto board, checking for a win after each move, then takes the moves back.
+    // Returns the number of has_won calls
+    public static long replay(Board board, int[][] games) {
+        long calls = 0;
+        for (int[] moves : games) {
+            for (int i = 0; i < moves.length; i++) {
+                int player = i % 2 + 1;
+                board.insert(moves[i], player);
+                if (board.has_won(player)) {
+                    blackhole++;
+                }
+                calls++;
+            }
+            while (board.undo_move() != -1) {
+                continue;
+            }
+        }
+        return calls;
+    }
+
+
+    // Random legal games, each stopping at its first win or when the board fills
+    public static int[][] random_games(int columns, int rows, int positions_to_win) {
+        Random random = new Random(seed);
+        Board board = Board.create(columns, rows, positions_to_win);
+        int[][] games = new int[game_count][];
+        int[] moves = new int[columns * rows];
+
+        for (int i = 0; i < game_count; i++) {
+            int move_count = 0;
+            while (move_count < moves.length) {
+                int column = random.nextInt(columns);
+                if (board.insert(column, move_count % 2 + 1) == -1) {
+                    continue;
+                }
+                moves[move_count++] = column;
+                if (board.has_won((move_count - 1) % 2 + 1)) {
+                    break;
+                }
+            }
+            games[i] = Arrays.copyOf(moves, move_count);
+            while (board.undo_move() != -1) {
+                continue;
+            }
+        }
+        return games;
+    }
+}
@@ -0,0 +1,436 @@
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+
+// Headless benchmark harness for the ConnectFour hot path. No sockets, terminal input or music are used.
+// Reports throughput, average latency and allocated bytes per operation for each benchmark.
+// Exits with status 1 if a path that must not allocate (has_won, is_tie) does.
+// With load, instead simulates pending matchmaking attempts (see run_load_test()).
+// ie: java Benchmark > bench_output.txt
+//     java Benchmark load 1000 10000 50000
+public class Benchmark {
+    // Fixed seed so every run measures the same positions
+    static final long seed = 20240101L;
+    static final int position_count = 2000;
+
+    static final int warmup_runs = 5;
+    static final int measured_runs = 10;
+    // Minimum time each run should last so timer resolution does not matter
+    static final long minimum_run_nanoseconds = 100_000_000L;
+
+    static final int columns = 7;
+    static final int rows = 6;
+    static final int column_base = 0;
+
+    static final com.sun.management.ThreadMXBean thread_bean =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // Keeps results alive so the JIT cannot discard the measured work
+    static long blackhole = 0;
+    static boolean allocation_regression = false;
+
+
+    // A position is the list of base-0 columns played from an empty board
+    static class Position {
+        final int[] moves;
+        final ConnectFour board;
+        final int last_player;
+        final ConnectFourDisplay display;
+
+        Position(int[] moves) {
+            this.moves = moves;
+            this.board = new ConnectFour(1, column_base);
+            for (int i = 0; i < moves.length; i++) {
+                board.insert_node(moves[i] + column_base, i % 2 + 1);
+            }
+            this.last_player = (moves.length - 1) % 2 + 1;
+            this.display = new ConnectFourDisplay(board.board, column_base);
+        }
+    }
+
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length > 0 && args[0].equals("load")) {
+            run_load_tests(args);
+            return;
+        }
+
+        Random random = new Random(seed);
+        List<Position> random_positions = new ArrayList<Position>();
+        List<Position> adversarial_positions = new ArrayList<Position>();
+
+        for (int i = 0; i < position_count; i++) {
+            random_positions.add(new Position(random_moves(random, 1, rows * columns)));
+            // Dense boards with no winner make the longest line walks and the most expensive tie checks
+            adversarial_positions.add(new Position(random_moves(random, rows * columns - 6, rows * columns)));
+        }
+
+        System.out.println("Benchmark\t\t\t\tops/s\t\tns/op\t\tB/op");
+        run_suite("random", random_positions);
+        run_suite("adversarial", adversarial_positions);
+        run_construction();
+        run_protocol();
+        run_metrics();
+
+        if (allocation_regression) {
+            System.out.println("ALLOCATION REGRESSION: a non-allocating path allocated memory");
+            System.exit(1);
+        }
+        // Printed so the blackhole is observably used
+        System.out.println("(blackhole " + blackhole + ")");
+    }
+
+
+    public static void run_suite(String suite_name, List<Position> positions) {
+        int total_moves = 0;
+        for (Position position : positions) {
+            total_moves += position.moves.length;
+        }
+
+        // Every run replays all positions onto fresh boards built beforehand, so only insert_node is timed
+        measure("insert_node/" + suite_name, total_moves, false, () -> {
+            ConnectFour[] boards = new ConnectFour[positions.size()];
+            for (int i = 0; i < boards.length; i++) {
+                boards[i] = new ConnectFour(1, column_base);
+            }
+            long start = System.nanoTime();
+            blackhole += replay_positions(positions, boards);
+            return System.nanoTime() - start;
+        }, true);
+
+        measure("has_won/" + suite_name, positions.size(), true, () -> {
+            long wins = 0;
+            for (int i = 0; i < positions.size(); i++) {
+                Position position = positions.get(i);
+                if (position.board.has_won(position.last_player)) {
+                    wins++;
+                }
+            }
+            return wins;
+        }, false);
+
+        measure("is_tie/" + suite_name, positions.size(), true, () -> {
+            long ties = 0;
+            for (int i = 0; i < positions.size(); i++) {
+                if (positions.get(i).board.is_tie()) {
+                    ties++;
+                }
+            }
+            return ties;
+        }, false);
+
+        measure("display.toString/" + suite_name, positions.size(), false, () -> {
+            long length = 0;
+            for (int i = 0; i < positions.size(); i++) {
+                length += positions.get(i).display.toString().length();
+            }
+            return length;
+        }, false);
+
+        // After one move only one row needs rebuilding
+        measure("display.move+toString/" + suite_name, positions.size() * 2, false, () -> {
+            long length = 0;
+            for (int i = 0; i < positions.size(); i++) {
+                Position position = positions.get(i);
+                position.board.undo_move();
+                length += position.display.toString().length();
+                position.board.redo_move();
+                length += position.display.toString().length();
+            }
+            return length;
+        }, false);
+
+        // Headless core: play and take back every position on a single reused board
+        BitBoard core = new BitBoard(columns, rows, 4);
+        measure("core.insert+undo/" + suite_name, total_moves, true, () -> {
+            long inserted = 0;
+            for (int i = 0; i < positions.size(); i++) {
+                int[] moves = positions.get(i).moves;
+                for (int j = 0; j < moves.length; j++) {
+                    if (core.insert(moves[j], j % 2 + 1) != -1) {
+                        inserted++;
+                    }
+                }
+                while (core.undo_move() != -1) {}
+            }
+            return inserted;
+        }, false);
+    }
+
+
+    // Cost of creating a board for a new game
+    public static void run_construction() {
+        measure("new ConnectFour", 1000, false, () -> {
+            long hash = 0;
+            for (int i = 0; i < 1000; i++) {
+                hash += System.identityHashCode(new ConnectFour(1, column_base));
+            }
+            return hash;
+        }, false);
+
+        measure("new BitBoard", 1000, false, () -> {
+            long hash = 0;
+            for (int i = 0; i < 1000; i++) {
+                hash += System.identityHashCode(new BitBoard(columns, rows, 4));
+            }
+            return hash;
+        }, false);
+    }
+
+
+    // Round trip of one INSERT message: GameMaster's text lines, ProtocolParser on a buffer and BinaryProtocol frames
+    public static void run_protocol() {
+        int message_count = 1000;
+
+        measure("protocol.text (String)", message_count, false, () -> {
+            long sum = 0;
+            for (int i = 0; i < message_count; i++) {
+                String line = "INSERT:" + (i % columns + 1);
+                sum += Integer.parseInt(line.split(":")[1]);
+            }
+            return sum;
+        }, false);
+
+        java.nio.ByteBuffer text_buffer = java.nio.ByteBuffer.allocate(64);
+        measure("protocol.text (ProtocolParser)", message_count, true, () -> {
+            long sum = 0;
+            for (int i = 0; i < message_count; i++) {
+                text_buffer.clear();
+                ProtocolParser.write_insert(text_buffer, i % columns + 1);
+                text_buffer.flip();
+                sum += ProtocolParser.parse_line(text_buffer, 0, ProtocolParser.find_line_end(text_buffer));
+            }
+            return sum;
+        }, false);
+
+        java.nio.ByteBuffer frame_buffer = java.nio.ByteBuffer.allocate(64);
+        measure("protocol.binary", message_count, true, () -> {
+            long sum = 0;
+            for (int i = 0; i < message_count; i++) {
+                frame_buffer.clear();
+                BinaryProtocol.put_frame(frame_buffer, BinaryProtocol.insert, i, i % columns + 1);
+                frame_buffer.flip();
+                sum += BinaryProtocol.get_payload(BinaryProtocol.get_frame(frame_buffer));
+            }
+            return sum;
+        }, false);
+    }
+
+
+    // Recording paths of Metrics, which sit on the move path and must stay in the nanoseconds
+    public static void run_metrics() {
+        int record_count = 1000;
+        Histogram histogram = new Histogram("benchmark");
+        measure("metrics.histogram.record", record_count, true, () -> {
+            for (int i = 0; i < record_count; i++) {
+                histogram.record(i * 997L);
+            }
+            return histogram.get_max();
+        }, false);
+
+        measure("metrics.counter.increment", record_count, true, () -> {
+            for (int i = 0; i < record_count; i++) {
+                Metrics.parse_failures.increment();
+            }
+            return 0;
+        }, false);
+        Metrics.parse_failures.reset();
+    }
+
+
+    // Runs run_load_test() for each pending match count in args (after "load"), on virtual threads if the runtime has
+    // them and on platform threads (up to max_platform_pending, beyond which they exhaust the process)
+    public static void run_load_tests(String[] args) throws InterruptedException {
+        int max_platform_pending = 2000;
+        int[] pending_counts = args.length > 1 ?
+            Arrays.stream(args, 1, args.length).mapToInt(Integer::parseInt).toArray() : new int[] {100, 1000, 10000};
+
+        System.out.println("Load test		pending	threads	heap MB	RSS MB	start ms	match ms");
+        for (int pending : pending_counts) {
+            if (VirtualThreads.available) {
+                run_load_test("virtual threads", pending, VirtualThreads::new_executor);
+            }
+            if (pending <= max_platform_pending) {
+                run_load_test("platform threads", pending, Executors::newCachedThreadPool);
+            }
+        }
+        if (!VirtualThreads.available) {
+            System.out.println("(virtual threads need JDK 21+; only platform threads were measured)");
+        }
+    }
+
+
+    // Holds pending matchmaking attempts shaped like MatchMaker.find_lan_match(): each is a TaskScope with two blocked
+    // listener tasks. Reports live platform threads and memory while they wait, then completes every match (one
+    // listener wins, the scope cancels the other) and reports how long that took
+    public static void run_load_test(String name, int pending, Supplier<ExecutorService> executors)
+        throws InterruptedException {
+        long baseline_heap = get_used_heap();
+        long baseline_rss = get_resident_bytes();
+        CountDownLatch started = new CountDownLatch(pending * 2);
+        CountDownLatch match_found = new CountDownLatch(1);
+        List<TaskScope> scopes = new ArrayList<TaskScope>(pending);
+        List<CompletableFuture<Boolean>> winners = new ArrayList<CompletableFuture<Boolean>>(pending);
+
+        long start_time = System.nanoTime();
+        for (int i = 0; i < pending; i++) {
+            TaskScope scope = new TaskScope(executors.get());
+            scopes.add(scope);
+            // Stands in for the UDP listener, which finds the opponent
+            winners.add(scope.fork(() -> {
+                started.countDown();
+                match_found.await();
+                return true;
+            }));
+            // Stands in for the TCP listener, which never hears from anyone and is cancelled
+            scope.fork(() -> {
+                started.countDown();
+                Thread.sleep(Long.MAX_VALUE);
+                return false;
+            });
+        }
+        started.await();
+        double start_milliseconds = (System.nanoTime() - start_time) / 1_000_000.0;
+
+        int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+        double heap_megabytes = (get_used_heap() - baseline_heap) / 1_048_576.0;
+        long rss = get_resident_bytes();
+        String rss_megabytes = rss < 0 ? "n/a" : String.format("%.1f", (rss - baseline_rss) / 1_048_576.0);
+
+        long match_time = System.nanoTime();
+        match_found.countDown();
+        for (int i = 0; i < pending; i++) {
+            winners.get(i).join();
+            scopes.get(i).close();
+        }
+        double match_milliseconds = (System.nanoTime() - match_time) / 1_000_000.0;
+
+        System.out.println(String.format("%-16s	%d	%d	%.1f	%s	%.1f		%.1f", name, pending, threads,
+            heap_megabytes, rss_megabytes, start_milliseconds, match_milliseconds));
+    }
+
+
+    public static long get_used_heap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+
+    // Resident set size from /proc (Linux), -1 elsewhere
+    public static long get_resident_bytes() {
+        try {
+            for (String line : java.nio.file.Files.readAllLines(java.nio.file.Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        }
+        catch (Exception e) {}
+        return -1;
+    }
+
+
+    // Inserts every position's moves into the matching board. Returns the number of successful inserts
+    public static long replay_positions(List<Position> positions, ConnectFour[] boards) {
+        long inserted = 0;
+        for (int i = 0; i < boards.length; i++) {
+            int[] moves = positions.get(i).moves;
+            for (int j = 0; j < moves.length; j++) {
+                if (boards[i].insert_node(moves[j] + column_base, j % 2 + 1) != -1) {
+                    inserted++;
+                }
+            }
+        }
+        return inserted;
+    }
+
+
+    // Runs operation repeatedly and prints its throughput, latency and allocation.
+    // If self_timed is set, operation returns its own elapsed nanoseconds (to exclude setup) and allocation is not reported
+    public static void measure(String name, int operations_per_run, boolean must_not_allocate,
+        LongSupplier operation, boolean self_timed) {
+        long thread_id = Thread.currentThread().getId();
+
+        for (int i = 0; i < warmup_runs; i++) {
+            run_for_minimum_time(operation, self_timed);
+        }
+
+        long total_nanoseconds = 0;
+        long total_operations = 0;
+        long total_bytes = 0;
+        for (int i = 0; i < measured_runs; i++) {
+            long bytes_before = thread_bean.getThreadAllocatedBytes(thread_id);
+            long[] result = run_for_minimum_time(operation, self_timed);
+            total_bytes += thread_bean.getThreadAllocatedBytes(thread_id) - bytes_before;
+            total_nanoseconds += result[0];
+            total_operations += result[1] * operations_per_run;
+        }
+
+        double nanoseconds_per_operation = (double) total_nanoseconds / total_operations;
+        double operations_per_second = 1_000_000_000.0 / nanoseconds_per_operation;
+        // Allocation is only meaningful when the whole run is the measured work
+        String bytes_per_operation = self_timed ? "n/a" :
+            String.format("%.2f", (double) total_bytes / total_operations);
+
+        System.out.println(String.format("%-32s\t%,.0f\t%.2f\t\t%s",
+            name, operations_per_second, nanoseconds_per_operation, bytes_per_operation));
+
+        // Anything below a byte per op is measurement noise (eg: the bean call itself)
+        if (must_not_allocate && total_bytes >= total_operations) {
+            System.out.println("  ^ expected 0 B/op");
+            allocation_regression = true;
+        }
+    }
+
+
+    // Returns {elapsed nanoseconds, number of runs}
+    public static long[] run_for_minimum_time(LongSupplier operation, boolean self_timed) {
+        long elapsed = 0;
+        long runs = 0;
+        while (elapsed < minimum_run_nanoseconds) {
+            if (self_timed) {
+                elapsed += operation.getAsLong();
+            }
+            else {
+                long start = System.nanoTime();
+                blackhole += operation.getAsLong();
+                elapsed += System.nanoTime() - start;
+            }
+            runs++;
+        }
+        return new long[] {elapsed, runs};
+    }
+
+
+    // Plays random legal moves from an empty board until a length in [minimum_length, maximum_length] is reached
+    // without either player winning. Restarts whenever a game is won or stuck before minimum_length
+    public static int[] random_moves(Random random, int minimum_length, int maximum_length) {
+        int target_length = minimum_length + random.nextInt(maximum_length - minimum_length + 1);
+
+        while (true) {
+            BitBoard board = new BitBoard(columns, rows, 4);
+            int[] moves = new int[target_length];
+            int length = 0;
+
+            while (length < target_length) {
+                int column = random.nextInt(columns);
+                if (!board.can_insert(column)) {
+                    continue;
+                }
+                int player = length % 2 + 1;
+                board.insert(column, player);
+                if (board.has_won(player)) {
+                    break;
+                }
+                moves[length++] = column;
+            }
+            if (length == target_length) {
+                return moves;
+            }
+        }
+    }
+}
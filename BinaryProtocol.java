@@ -0,0 +1,113 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+
+// Compact binary alternative to the text game protocol, used only when both peers negotiate it.
+// Every frame starts with one header byte: frame type in the top 2 bits and a 6-bit sequence number (frames sent by
+// that peer so far, mod 64). INSERT and HELLO carry one payload byte; YOU WIN and ERROR are the header alone.
+//
+//   INSERT:<n>  ->  [00 ssssss] [n]
+//   YOU WIN     ->  [01 ssssss]
+//   ERROR       ->  [10 ssssss]
+//   HELLO       ->  [11 ssssss] [version]
+//
+// Negotiation: a client that supports it adds V<version> to its NEW GAME broadcast. A Player 2 that sees it sends
+// HELLO as soon as it connects. Player 1 decides: if the HELLO arrives shortly after the connection it replies with
+// its own HELLO and switches to binary; otherwise (eg: an older client, which never writes before Player 1's first
+// move) it keeps the text protocol and skips a HELLO that turns up late. Player 2 only switches once it reads Player
+// 1's HELLO as the first thing sent; Player 1's first text move means it kept the text protocol. A header byte with
+// type HELLO is never the start of a text command, so either side can tell which one came.
+//
+// Frames are read and written with primitive ints and caller-supplied buffers, so nothing is allocated per message.
+public class BinaryProtocol {
+    static final int version = 1;
+
+    // Frame types
+    static final int insert = 0;
+    static final int win = 1;
+    static final int error = 2;
+    static final int hello = 3;
+
+    static final int sequence_mask = 0x3F;
+    // Returned by read_frame when the connection has closed
+    static final int closed = -1;
+
+
+    // Writes a frame into frame (at least 2 bytes long). Returns its length
+    public static int encode(byte[] frame, int type, int sequence, int payload) {
+        frame[0] = (byte) ((type << 6) | (sequence & sequence_mask));
+        if (has_payload(type)) {
+            frame[1] = (byte) payload;
+            return 2;
+        }
+        return 1;
+    }
+
+
+    public static void write_frame(OutputStream output, byte[] frame, int type, int sequence, int payload)
+        throws IOException {
+        output.write(frame, 0, encode(frame, type, sequence, payload));
+    }
+
+
+    public static void put_frame(ByteBuffer buffer, int type, int sequence, int payload) {
+        buffer.put((byte) ((type << 6) | (sequence & sequence_mask)));
+        if (has_payload(type)) {
+            buffer.put((byte) payload);
+        }
+    }
+
+
+    // Blocks for the next frame. Returns it packed (see get_type, get_sequence, get_payload), or closed
+    public static int read_frame(InputStream input) throws IOException {
+        int header = input.read();
+        if (header == -1) {
+            return closed;
+        }
+        int payload = 0;
+        if (has_payload(header >>> 6)) {
+            payload = input.read();
+            if (payload == -1) {
+                return closed;
+            }
+        }
+        return (header << 8) | payload;
+    }
+
+
+    // Reads a frame from buffer, -1 if it does not hold a whole frame yet (nothing is consumed then)
+    public static int get_frame(ByteBuffer buffer) {
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        int header = buffer.get(buffer.position()) & 0xFF;
+        if (!has_payload(header >>> 6)) {
+            buffer.get();
+            return header << 8;
+        }
+        if (buffer.remaining() < 2) {
+            return -1;
+        }
+        buffer.get();
+        return (header << 8) | (buffer.get() & 0xFF);
+    }
+
+
+    public static boolean has_payload(int type) {
+        return type == insert || type == hello;
+    }
+
+    public static int get_type(int frame) {
+        return (frame >>> 14) & 0x3;
+    }
+
+    public static int get_sequence(int frame) {
+        return (frame >>> 8) & sequence_mask;
+    }
+
+    public static int get_payload(int frame) {
+        return frame & 0xFF;
+    }
+}
@@ -0,0 +1,225 @@
+// Compact game state engine. Each player's stones are packed into a single 64-bit long.
+// Bits are laid out column by column (bottom up), with one spare bit on top of each column so
+// shifted lines can never wrap from one column into the next:
+//
+//   6 13 20 27 34 41 48   <- spare (always empty)
+//   5 12 19 26 33 40 47
+//   4 11 18 25 32 39 46
+//   3 10 17 24 31 38 45
+//   2  9 16 23 30 37 44
+//   1  8 15 22 29 36 43
+//   0  7 14 21 28 35 42
+//
+// Cell indices returned to callers are row * columns + column.
+// This is the headless game core: it has no terminal, audio or display dependencies, so many boards can live in one process.
+// Boards that need more than 64 bits use LargeBitBoard instead (see Board.create()).
+public class BitBoard implements Board {
+    final int columns;
+    final int rows;
+    final int positions_to_win;
+
+    // Bits used per column (rows + 1 spare bit)
+    final int column_bits;
+    // Bit at the bottom of every column, and every playable (non-spare) bit
+    final long bottom_mask;
+    final long board_mask;
+
+    // 1 -> Player 1 stones
+    // 2 -> Player 2 stones
+    long player_1_stones = 0L;
+    long player_2_stones = 0L;
+
+    // Number of occupied cells in each column, so a drop never has to search the column
+    final int[] column_heights;
+    // Base-0 column of every move played, in order, so moves can be undone
+    final byte[] move_history;
+    int move_count = 0;
+    // Zobrist hash of the stones on the board
+    long hash = 0L;
+
+
+    BitBoard(int columns, int rows, int positions_to_win) {
+        if (!fits(columns, rows)) {
+            throw new IllegalArgumentException("Board of " + columns + "x" + rows +
+                " does not fit in a 64-bit board; expected columns * (rows + 1) <= 64");
+        }
+        this.columns = columns;
+        this.rows = rows;
+        this.positions_to_win = positions_to_win;
+        this.column_bits = rows + 1;
+
+        long bottom = 0L;
+        for (int i = 0; i < columns; i++) {
+            bottom |= 1L << (i * column_bits);
+        }
+        this.bottom_mask = bottom;
+        this.board_mask = bottom * ((1L << rows) - 1);
+        this.column_heights = new int[columns];
+        this.move_history = new byte[columns * rows];
+    }
+
+
+    // Copy of another board, for searches that must not disturb the game being played
+    BitBoard(BitBoard other) {
+        this(other.columns, other.rows, other.positions_to_win);
+        this.player_1_stones = other.player_1_stones;
+        this.player_2_stones = other.player_2_stones;
+        System.arraycopy(other.column_heights, 0, this.column_heights, 0, columns);
+        System.arraycopy(other.move_history, 0, this.move_history, 0, other.move_count);
+        this.move_count = other.move_count;
+        this.hash = other.hash;
+    }
+
+
+    // True if a columns x rows board (plus the spare bit per column) fits in one long
+    public static boolean fits(int columns, int rows) {
+        return columns * (rows + 1) <= Long.SIZE;
+    }
+
+
+    public int get_columns() {
+        return columns;
+    }
+
+    public int get_rows() {
+        return rows;
+    }
+
+    public int get_positions_to_win() {
+        return positions_to_win;
+    }
+
+    public int get_move_count() {
+        return move_count;
+    }
+
+    // Base-0 column of the last move, -1 if the board is empty
+    public int get_last_column() {
+        return move_count == 0 ? -1 : move_history[move_count - 1];
+    }
+
+
+    // Check if a stone can be dropped into the base-0 column
+    public boolean can_insert(int column) {
+        return column >= 0 && column < columns && column_heights[column] < rows;
+    }
+
+
+    // Drops target_player's stone into the base-0 column. Returns the inserted cell index, -1 if unsuccessful
+    public int insert(int column, int target_player) {
+        if (!can_insert(column)) {
+            return -1;
+        }
+        int row = column_heights[column]++;
+        int bit = column * column_bits + row;
+        long stone = 1L << bit;
+
+        if (target_player == 1) {
+            player_1_stones |= stone;
+        }
+        else {
+            player_2_stones |= stone;
+        }
+        hash ^= Zobrist.get_key(column * rows + row, target_player);
+        move_history[move_count++] = (byte) column;
+        return row * columns + column;
+    }
+
+
+    // Takes back the last move. Returns the base-0 column it was played in, -1 if the board is empty
+    public int undo_move() {
+        if (move_count == 0) {
+            return -1;
+        }
+        int column = move_history[--move_count];
+        int row = --column_heights[column];
+        int bit = column * column_bits + row;
+        long stone = 1L << bit;
+
+        hash ^= Zobrist.get_key(column * rows + row, (player_1_stones & stone) != 0 ? 1 : 2);
+        // Only the player who made the move has a stone there, so clearing both is safe
+        player_1_stones &= ~stone;
+        player_2_stones &= ~stone;
+        return column;
+    }
+
+
+    // Checks if target_player has positions_to_win stones in a line anywhere on the board
+    public boolean has_won(int target_player) {
+        long stones = get_stones(target_player);
+
+        // Vertical, horizontal, diagonal (negative gradient), diagonal (positive gradient)
+        return has_line(stones, 1) ||
+            has_line(stones, column_bits) ||
+            has_line(stones, column_bits - 1) ||
+            has_line(stones, column_bits + 1);
+    }
+
+
+    // Shift-and-mask: a bit survives only if every stone (shift * k) positions below it is also set
+    public boolean has_line(long stones, int shift) {
+        // Connect four: pairs, then pairs of pairs, in two steps instead of three
+        if (positions_to_win == 4) {
+            long pairs = stones & (stones >>> shift);
+            return (pairs & (pairs >>> (2 * shift))) != 0;
+        }
+        long line = stones;
+        for (int i = 1; i < positions_to_win; i++) {
+            line &= stones >>> (shift * i);
+        }
+        return line != 0;
+    }
+
+
+    // Check if all cells are occupied and game is a tie
+    public boolean is_tie() {
+        return move_count == rows * columns;
+    }
+
+
+    // Returns 1 or 2 for an occupied cell, -1 for an empty one
+    public int get_state(int row, int column) {
+        long stone = 1L << (column * column_bits + row);
+        if ((player_1_stones & stone) != 0) {
+            return 1;
+        }
+        else if ((player_2_stones & stone) != 0) {
+            return 2;
+        }
+        return -1;
+    }
+
+
+    public int get_height(int column) {
+        return column_heights[column];
+    }
+
+
+    public long get_hash() {
+        return hash;
+    }
+
+
+    public long get_stones(int target_player) {
+        return target_player == 1 ? player_1_stones : player_2_stones;
+    }
+
+
+    // Every occupied cell
+    public long get_mask() {
+        return player_1_stones | player_2_stones;
+    }
+
+
+    // Unique key for the position. Adding bottom_mask to the occupied cells sets the bit just above each column's stones,
+    // which marks the column heights, so player 1's stones plus that is unique (side to move follows from move_count)
+    public long get_key() {
+        return player_1_stones + get_mask() + bottom_mask;
+    }
+
+
+    // All bits in the base-0 column
+    public long get_column_mask(int column) {
+        return ((1L << rows) - 1) << (column * column_bits);
+    }
+}
@@ -0,0 +1,66 @@
+// Headless game core shared by every board size: drops, undo and win/tie checks, with no terminal or display.
+// Columns and cell indices are base-0; a cell index is row * columns + column.
+// create() picks the representation: BitBoard (one long per player) when the board fits in 64 bits, otherwise
+// LargeBitBoard (a long[] per player).
+public interface Board {
+    // The classic board, used when nothing else is negotiated
+    int default_columns = 7;
+    int default_rows = 6;
+    int default_positions_to_win = 4;
+    // Columns travel as one byte in GameLog records
+    int maximum_size = 127;
+
+
+    static Board create(int columns, int rows, int positions_to_win) {
+        if (!is_valid_size(columns, rows, positions_to_win)) {
+            throw new IllegalArgumentException("Invalid board " + columns + "x" + rows + " with " + positions_to_win +
+                " in a row; expected sides of 1 - " + maximum_size + " and 2 <= positions to win <= longest side");
+        }
+        if (BitBoard.fits(columns, rows)) {
+            return new BitBoard(columns, rows, positions_to_win);
+        }
+        return new LargeBitBoard(columns, rows, positions_to_win);
+    }
+
+
+    static boolean is_valid_size(int columns, int rows, int positions_to_win) {
+        return columns >= 1 && columns <= maximum_size && rows >= 1 && rows <= maximum_size &&
+            positions_to_win >= 2 && positions_to_win <= Math.max(columns, rows);
+    }
+
+
+    int get_columns();
+
+    int get_rows();
+
+    int get_positions_to_win();
+
+    int get_move_count();
+
+    // Base-0 column of the last move, -1 if the board is empty
+    int get_last_column();
+
+    // Check if a stone can be dropped into the base-0 column
+    boolean can_insert(int column);
+
+    // Drops target_player's stone into the base-0 column. Returns the inserted cell index, -1 if unsuccessful
+    int insert(int column, int target_player);
+
+    // Takes back the last move. Returns the base-0 column it was played in, -1 if the board is empty
+    int undo_move();
+
+    // Checks if target_player has positions_to_win stones in a line
+    boolean has_won(int target_player);
+
+    // Check if all cells are occupied and game is a tie
+    boolean is_tie();
+
+    // Returns 1 or 2 for an occupied cell, -1 for an empty one
+    int get_state(int row, int column);
+
+    // Number of stones in the base-0 column
+    int get_height(int column);
+
+    // Zobrist hash of the position, kept up to date by insert and undo_move
+    long get_hash();
+}
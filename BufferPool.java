@@ -0,0 +1,30 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+
+// Reusable direct ByteBuffers of one size, so connections do not allocate (or free native memory) per session.
+// Buffers are created on demand and kept for reuse when released.
+public class BufferPool {
+    final int buffer_size;
+    final ConcurrentLinkedQueue<ByteBuffer> free_buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+
+
+    BufferPool(int buffer_size) {
+        this.buffer_size = buffer_size;
+    }
+
+
+    // Returns a cleared buffer
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free_buffers.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(buffer_size);
+    }
+
+
+    public void release(ByteBuffer buffer) {
+        if (buffer != null) {
+            buffer.clear();
+            free_buffers.offer(buffer);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.InterfaceAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
@@ -12,8 +13,32 @@ import java.util.Iterator;
 public class Client {
     // To automatically find first broadcast address on the network instead of entering it
     static final boolean auto_broadcast_address = true; 
+    // To let the computer play this client's moves, and how long it may think per move
+    static final boolean use_ai_player = false;
+    static final long ai_milliseconds_per_move = 45;
+    // Number of search threads for the AI player (1 -> single-threaded search)
+    static final int ai_parallelism = 1;
+    // To also search each move on one thread and report the parallel speedup (doubles the AI's thinking time)
+    static final boolean ai_measure_speedup = false;
+    // Generated with: java OpeningBook opening_book.bin
+    static final String opening_book_file_path = "opening_book.bin";
     static InetAddress broadcast_address;
     static int broadcast_port;
+    // To find opponents through a LobbyServer first (LAN broadcasts are still used if it cannot be reached)
+    static final boolean use_lobby_server = false;
+    static final String lobby_host = "localhost";
+    static final int lobby_port = 7000;
+    static final int rating = 1200;
+    // Board offered to opponents when this client is Player 1 (Player 2 plays the opponent's board)
+    static final int board_columns = Board.default_columns;
+    static final int board_rows = Board.default_rows;
+    static final int board_positions_to_win = Board.default_positions_to_win;
+    // To append every game's moves to an on-disk log (see GameLog). Off by default, as it writes into the working
+    // directory
+    static final boolean record_games = false;
+    static final String game_log_directory = "game_logs";
+    // Metrics are always available over JMX; set above 0 to also print them every that many seconds
+    static final int metrics_dump_seconds = 0;
 
 
     public static void main(String[] args) throws Exception {
@@ -34,13 +59,26 @@ public class Client {
                 System.exit(0);
             }
         }
+        Metrics.start(metrics_dump_seconds);
+        GameLog game_log = record_games ? open_game_log() : null;
+        // One AI player (and so one worker pool) for every matchmaking attempt
+        AIPlayer ai_player = use_ai_player ? create_ai_player() : null;
         while (true) {
             try {
                 // Start her up
-                GameMaster gameMaster = new GameMaster(broadcast_address, broadcast_port);
+                MatchMaker match_maker = new MatchMaker(broadcast_address, broadcast_port,
+                    use_lobby_server ? new InetSocketAddress(lobby_host, lobby_port) : null, rating);
+                match_maker.set_board_size(board_columns, board_rows, board_positions_to_win);
+                GameMaster gameMaster = new GameMaster(match_maker, ai_player);
+                gameMaster.connect_four.start_recording(game_log);
                 gameMaster.start();
+                if (game_log != null) {
+                    game_log.close();
+                }
+                ConsoleSink.drain(1000);
+                System.exit(0);
             }
-            // If connection cannot be made or is interrupted
+            // If connection cannot be made, or was interrupted and could not be resumed (see GameMaster.resume_session())
             catch (IOException e) {
                 System.out.println("\n-- CONNECTION WAS INTERRUPTED --\nReturning to matchmaking...");                
                 continue;
@@ -49,6 +87,29 @@ public class Client {
     }
 
 
+    // Recording is skipped (with a message) if the log directory cannot be written
+    public static GameLog open_game_log() {
+        try {
+            return new GameLog(game_log_directory);
+        }
+        catch (IOException e) {
+            System.out.println("Could not open game log in " + game_log_directory + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+
+    public static AIPlayer create_ai_player() {
+        AIPlayer ai_player = ai_parallelism > 1 ? new ParallelAIPlayer(ai_milliseconds_per_move, ai_parallelism) :
+            new AIPlayer(ai_milliseconds_per_move);
+        if (ai_measure_speedup && ai_player instanceof ParallelAIPlayer) {
+            ((ParallelAIPlayer) ai_player).measure_speedup();
+        }
+        ai_player.opening_book = OpeningBook.open_if_exists(opening_book_file_path);
+        return ai_player;
+    }
+
+
     // Utility function for finding the first broadcast address on the network
     // Adapted code by mpontillo: https://stackoverflow.com/questions/4887675/detecting-all-available-networks-broadcast-addresses-in-java
     public static InetAddress find_first_broadcast_address() {
@@ -1,35 +1,55 @@
-import java.util.*;
-import java.util.function.BiFunction;
-
-
 // Assuming column indices are base-0
+// Headless game: the board plus move recording. The terminal (display, keyboard input and music) is an optional
+// adapter on top of it, see ConnectFourTerminal
 public class ConnectFour {
     // 1 -> Player 1
     // 2 -> Player 2
     final int client_player;
     final int opponent_player;
 
-    // 7-column-wide, 6-row-high
-    final int columns = 7;
-    final int rows = 6;
-    final int positions_to_win = 4;
+    // 7-column-wide, 6-row-high, 4 in a row unless another size was negotiated
+    final int columns;
+    final int rows;
+    final int positions_to_win;
 
     final int column_base;
 
-    // Objects to store current game state and display it to terminal
-    ArrayList<ArrayList<Node>> game_state;
-    final ConnectFourDisplay board_display;
-
-    // For user input
-    final Scanner scanner = new Scanner(System.in);
-    // To play music
-    final MusicPlayer music_player = new MusicPlayer();
+    // The game state: stones, move validation and win/tie checks. ConnectFourDisplay renders straight from it
+    final Board board;
+    // The same board when it fits in a single-long BitBoard (which AIPlayer searches), null for larger boards
+    final BitBoard bit_board;
+
+    // Moves taken back by undo_move, most recent last, as column (base-0) * 8 + 4 if it had been recorded (see
+    // record_move) + player; cleared by any new move
+    final int[] redo_moves;
+    int redo_count = 0;
+    // Whether each move on the board (by its place in the move order) went through record_move, so undo_move only
+    // takes back from the log the moves that were in it
+    final boolean[] recorded_moves;
+
+    // Moves from client_insert and opponent_insert are appended here if set (see start_recording())
+    GameLog game_log;
+    long game_id;
+    // volatile as GameMaster's resume listener reads it from its own thread
+    volatile int move_number = 0;
+    // The same moves are published here for spectators if set
+    SpectatorFeed spectator_feed;
 
     
 
     ConnectFour(int client_player, int column_base){
-        initialise_game();
-        this.board_display = new ConnectFourDisplay(game_state, column_base);
+        this(client_player, column_base, Board.default_columns, Board.default_rows, Board.default_positions_to_win);
+    }
+
+
+    ConnectFour(int client_player, int column_base, int columns, int rows, int positions_to_win){
+        this.columns = columns;
+        this.rows = rows;
+        this.positions_to_win = positions_to_win;
+        this.board = Board.create(columns, rows, positions_to_win);
+        this.bit_board = board instanceof BitBoard ? (BitBoard) board : null;
+        this.redo_moves = new int[columns * rows];
+        this.recorded_moves = new boolean[columns * rows];
 
         this.client_player = client_player;
         this.opponent_player = client_player == 1 ? 2 : 1;
@@ -38,87 +58,45 @@ public class ConnectFour {
     }
 
 
-    // Populates game_state 2d arraylist with nodes with populated indices
-    public void initialise_game() {
-        game_state = new ArrayList<ArrayList<Node>>();
-
-        for (int i = 0; i < rows; i++) {
-            ArrayList<Node> current_row = new ArrayList<Node>();
-            for (int j = 0; j < columns; j++) {
-                current_row.add(new Node((i * columns) + j));
-            }
-            game_state.add(current_row);
-        }
-    }
-
-
-    // Gets and checks user column input before inserting into column
-    // Returns successfully placed column index, or -1 for TIE
-    public int client_insert() {
-        // Display current board state
-        System.out.println(board_display.toString());
-
+    // Inserts a column chosen without terminal input (eg: by the AI player)
+    // Returns successfully placed column index, -1 for TIE, or -2 if invalid
+    public int client_insert(int column_index) {
         if (is_tie()) {
-            System.out.println("TIE! No game spaces remaining.");
+            record_result(0);
             return -1;
         }
 
-        // Play jeopardy theme while client is chosing column
-        if (client_player == 1) {
-            music_player.start(music_player.jeopardy_theme_file_path, true);
+        if (insert_node(column_index, client_player) == -1) {
+            return -2;
         }
+        client_inserted(column_index);
+        return column_index;
+    }
+
 
-        // Loop until valid input is received
-        while (true) {
-            System.out.println("Enter column index: ");
-            String next_line = scanner.nextLine();
-            int column_index;
-
-            try {
-                // Attempt to parse to int
-                column_index = Integer.parseInt(next_line);
-            }
-            catch (NumberFormatException e) {
-                System.out.println("Invalid input; expected an integer. Received: " + next_line);
-                continue;
-            }
-            // Attempt to insert node
-            Node inserted_node = insert_node(column_index, client_player);
-            // If node is not within column bounds or column is full
-            if (inserted_node == null) {
-                System.out.println("Invalid input; column index out of bounds or column is fully occupied. Received: " + column_index);
-                continue;
-            }
-            // Print updated board
-            System.out.println(board_display.toString());
-            System.out.println("Successfully inserted node at index: " + column_index);
-
-            // Check to see if client won (still need YOU WIN from opponent to exit)
-            if (has_won(inserted_node)) {
-                System.out.println("You win! Waiting for opponent confirmation...");
-            }
-            // Pause music once client has given valid input
-            if (client_player == 1) {
-                music_player.pause();
-            }
-            
-            // Return inserted column index
-            return column_index;
+    // Records a successful client move. Returns true if the client won (still need YOU WIN from opponent to exit)
+    public boolean client_inserted(int column_index) {
+        record_move(client_player, column_index);
+
+        if (timed_has_won(client_player)) {
+            record_result(client_player);
+            return true;
         }
+        return false;
     }
 
 
     // Inserts opponent node at column index
     // Returns successfully placed column index, -1 for if opponent won, or -2 if invalid
     public int opponent_insert(int column_index) {
-        Node inserted_node = insert_node(column_index, opponent_player);
-
         // Opponent sent invalid index
-        if (inserted_node == null) {
+        if (insert_node(column_index, opponent_player) == -1) {
             return -2;
         }
+        record_move(opponent_player, column_index);
         // Opponent wins
-        else if (has_won(inserted_node)) {
+        if (timed_has_won(opponent_player)) {
+            record_result(opponent_player);
             return -1;
         }
         // Return inserted column index
@@ -126,135 +104,127 @@ public class ConnectFour {
     }
 
 
-    // Check if all cells are occupied and game is a tie
-    public boolean is_tie() {
-        // For each column
-        for (int i = 0; i < columns; i++) {
-            // Game continues if any cell in the top row is unoccupied
-            if (game_state.get(rows - 1).get(i).state == -1) {
-                return false;
-            }
-        }
-        return true;
+    // Appends this game's moves to game_log from now on, under a new game id
+    public void start_recording(GameLog game_log) {
+        this.game_log = game_log;
+        this.game_id = GameLog.new_game_id();
     }
 
 
-    // Insert node at column index. Returns inserted node if successful, null if unsuccessful
-    public Node insert_node(int column_index, int target_player) {
-        // If column index is not in bounds
-        if (column_index < 0 + column_base || column_index >= columns + column_base) {
-            return null;
+    // Records the move just placed on the board
+    public void record_move(int target_player, int column_index) {
+        recorded_moves[board.get_move_count() - 1] = true;
+        move_number++;
+        if (game_log != null) {
+            game_log.append_move(game_id, move_number, target_player, column_index - column_base);
         }
-        // Target node is the top node in target column
-        Node target_node = game_state.get(rows - 1).get(column_index - column_base);
-
-        // If top of column is occupied
-        if (target_node.state != -1) {
-            return null;
-        }
-        // Get node below target
-        Node below_node = get_node_vertical(target_node, true);
-        // Keep going down until node below target is occupided
-        while (below_node != null && below_node.state == -1) {
-            target_node = below_node;
-            below_node = get_node_vertical(target_node, true);
+        if (spectator_feed != null) {
+            spectator_feed.publish_move(target_player, column_index - column_base);
         }
-        target_node.state = target_player;
-        return target_node;
     }
 
 
-    // Checks if current_player has won around given target_node
-    // Will only need to check based off of each newly placed node - new winning condition must include newly placed node
-    public boolean has_won(Node target_node) {
-        // Check if won horizontally, vertically, or diagonally (positive and negative gradient)
-        if (has_won_in_direction(target_node, (i, j) -> get_node_horizontal(i, j))) {
-            return true;
+    // Takes back the last recorded move, target_player's at column_index
+    public void record_undo(int target_player, int column_index) {
+        if (game_log != null) {
+            game_log.append_undo(game_id, move_number, target_player, column_index - column_base);
         }
-        else if (has_won_in_direction(target_node, (i, j) -> get_node_vertical(i, j))) {
-            return true;
-        }
-        else if (has_won_in_direction(target_node, (i, j) -> get_node_diagonal_negative(i, j))) {
-            return true;
+        if (spectator_feed != null) {
+            spectator_feed.publish_undo(target_player, column_index - column_base);
         }
-        else if (has_won_in_direction(target_node, (i, j) -> get_node_diagonal_positive(i, j))) {
-            return true;
-        }
-        return false;
+        move_number--;
     }
 
 
-    // Checks if current_player has at least positions_to_win consecutive nodes in a given direction around given target_node
-    public boolean has_won_in_direction(Node target_node, BiFunction<Node, Boolean, Node> node_direction_function) {
-        int target_player = target_node.state;
-        // To account for target node
-        int current_positions = 1;
-        boolean current_direction = false;
-        Node next_node = node_direction_function.apply(target_node, current_direction);
- 
-        do {
-            // Count the number of consecutive player controlled nodes in the given direction around target node
-            while (next_node != null && next_node.state == target_player) {
-                next_node = node_direction_function.apply(next_node, current_direction);
-                current_positions += 1;
-            }
-            // Switch direction (if checking horizontal: false=left, true=right)
-            current_direction = !current_direction;
-            next_node = node_direction_function.apply(target_node, current_direction);
+    // winner is 0 for a tie
+    public void record_result(int winner) {
+        if (game_log != null) {
+            game_log.append_result(game_id, move_number, winner);
+        }
+        if (spectator_feed != null) {
+            spectator_feed.publish_result(winner);
         }
-        // Exits loop once two direction changes have been made
-        while (current_direction);
-
-        return (current_positions >= this.positions_to_win) ? true : false;
     }
 
 
-    // Check if index is out of bounds of the board
-    public boolean is_valid_index(int index) {
-        return (index >= rows*columns || index < 0) ? false : true;
+    // Check if all cells are occupied and game is a tie
+    public boolean is_tie() {
+        return board.is_tie();
     }
 
-    // Get node with given index
-    public Node get_node(int index) {
-        return is_valid_index(index) ? game_state.get(index / columns).get(index % columns) : null;
-    }
 
-    // below: true = down, false = up
-    public Node get_node_vertical(Node node, boolean below) {
-        return node == null ? null : 
-            below ? get_node(node.index - columns) : get_node(node.index + columns);
+    // Takes back the last move in place, so variations can be explored without copying the board.
+    // A move that was recorded is taken back from move_number, the game log and spectators too.
+    // Returns its column index (with column_base), -1 if there is no move to take back
+    public int undo_move() {
+        int column = board.get_last_column();
+        if (column == -1) {
+            return -1;
+        }
+        int undone_player = board.get_state(board.get_height(column) - 1, column);
+        board.undo_move();
+        // Moves placed with insert_node alone (eg: set-up positions) were never recorded
+        boolean recorded = recorded_moves[board.get_move_count()];
+        redo_moves[redo_count++] = column * 8 + (recorded ? 4 : 0) + undone_player;
+        if (recorded) {
+            record_undo(undone_player, column + column_base);
+        }
+        return column + column_base;
     }
 
-    // left: true = left, false = right
-    public Node get_node_horizontal(Node node, boolean left) {
-        // Must check if going left or right goes over the vertical edge of the board to prevent looping around
-        return node == null ? null : 
-            left ? ((node.index % columns == 0) ? null : get_node(node.index - 1)) : 
-                (((node.index + 1) % columns == 0) ? null : get_node(node.index + 1));
+
+    // Plays the last undone move again. Returns its cell index, -1 if there is nothing to redo
+    public int redo_move() {
+        if (redo_count == 0) {
+            return -1;
+        }
+        int redo_move = redo_moves[--redo_count];
+        // insert_node clears the redo moves, but these are still valid
+        int remaining_redo_count = redo_count;
+        int redone_index = insert_node(redo_move / 8 + column_base, redo_move % 4);
+        redo_count = remaining_redo_count;
+        if (redone_index != -1 && (redo_move & 4) != 0) {
+            record_move(redo_move % 4, redo_move / 8 + column_base);
+        }
+        return redone_index;
     }
 
-    // Diagonal negative gradient; down: true = bottom right, false = top left
-    public Node get_node_diagonal_negative(Node node, boolean down) {
-        return node == null ? null :
-            down ? get_node_horizontal(get_node_vertical(node, true), false) : get_node_horizontal(get_node_vertical(node, false), true);
+
+    // Zobrist hash of the current position (see Zobrist), the same for the same stones whatever the move order
+    public long get_hash() {
+        return board.get_hash();
     }
 
-    // Diagonal positive gradient; down: true = bottom left, false = top right
-    public Node get_node_diagonal_positive(Node node, boolean down) {
-        return node == null ? null :
-            down ? get_node_horizontal(get_node_vertical(node, true), true) : get_node_horizontal(get_node_vertical(node, false), false);
+
+    // Insert node at column index. Returns the inserted cell index (row * columns + column) if successful,
+    // -1 if unsuccessful
+    public int insert_node(int column_index, int target_player) {
+        // If column index is not in bounds
+        if (column_index < 0 + column_base || column_index >= columns + column_base) {
+            return -1;
+        }
+        // O(1) drop using the column height counters
+        int inserted_index = board.insert(column_index - column_base, target_player);
+        if (inserted_index == -1) {
+            return -1;
+        }
+        redo_count = 0;
+        recorded_moves[board.get_move_count() - 1] = false;
+        return inserted_index;
     }
 
-    // To display board
-    public String toString() {
-        return board_display.toString();
+
+    // has_won for moves played in a game, timed for Metrics.win_check. Search and self-play call has_won directly
+    public boolean timed_has_won(int target_player) {
+        long start_time = System.nanoTime();
+        boolean won = has_won(target_player);
+        Metrics.win_check.record(System.nanoTime() - start_time);
+        return won;
     }
 
-    // Display nice message at the beginning of the game
-    public String start_message() {
-        StringBuilder message_builder = new StringBuilder();
-        message_builder.append("-- You are Player " + client_player + " --\n");
-        message_builder.append(client_player == 1 ? board_display.player_1_cell : board_display.player_2_cell);
-        return message_builder.toString();
+
+    // Checks if target_player has won. Only the player who just moved can have a new line
+    public boolean has_won(int target_player) {
+        return board.has_won(target_player);
     }
 }
@@ -1,9 +1,12 @@
 import java.util.*;
 
 
-// To display connect 4 board to terminal
+// To display connect 4 board to terminal. Renders straight from the Board, which holds no display state itself.
+// Each board row's text is cached with the cell states it shows, so a render only rebuilds rows whose cells changed
+// (after a move, just the row the stone landed in) and returns the cached board if nothing changed.
+// get_ansi_update() can instead redraw only the changed rows of a board already on the terminal.
 public class ConnectFourDisplay {
-    final ArrayList<ArrayList<Node>> board;
+    final Board board;
 
     final int rows;
     final int columns;
@@ -21,54 +24,135 @@ public class ConnectFourDisplay {
         "  |   |  \n" +
         "   ---   ";
 
+    // Each visual cell row consists of 3 actual rows, split once here rather than per cell
+    final String[] player_1_cell_rows = player_1_cell.split("\n");
+    final String[] player_2_cell_rows = player_2_cell.split("\n");
+    final int lines_per_row = 4;
+
+    final String row_separator;
+    final String footer;
+
+    // Text of each board row (separator and cell rows) and the cell states it was built from
+    final String[] row_strings;
+    final int[][] rendered_states;
+    // Whole board as last returned by toString(), null once any row has changed
+    String board_string;
+
         
-    ConnectFourDisplay(ArrayList<ArrayList<Node>> board, int column_base) {
+    ConnectFourDisplay(Board board, int column_base) {
         this.board = board;
-        this.rows = board.size();
-        this.columns = board.get(0).size();
+        this.rows = board.get_rows();
+        this.columns = board.get_columns();
         this.column_base = column_base;
+
+        this.row_separator = "+" + (cell_spacing + "+").repeat(columns) + "\n";
+        this.footer = build_footer();
+        this.row_strings = new String[rows];
+        this.rendered_states = new int[rows][columns];
+        // No state matches, so every row is built on first render
+        for (int[] row_states : rendered_states) {
+            Arrays.fill(row_states, Integer.MIN_VALUE);
+        }
     }
     
     
     // Override string method
     public String toString() {
+        boolean changed = false;
+        for (int i = 0; i < rows; i++) {
+            changed |= refresh_row(i);
+        }
+        if (!changed && board_string != null) {
+            return board_string;
+        }
+
         // Build board by each row top down
-        StringBuilder board_builder = new StringBuilder();
+        StringBuilder board_builder = new StringBuilder(row_strings[0].length() * rows + footer.length());
         // Rows decrementing so visually board starts in bottom left and ends in top right
         for (int i = rows-1; i >= 0; i--) {
-            board_builder.append("+" + (cell_spacing + "+").repeat(columns) + "\n");
-            // Each visual cell row consists of 3 actual rows
-            for (int cell_row = 0; cell_row < 3; cell_row++) {
-                // For each column
-                for (int j = 0; j < columns; j++) {
-                    board_builder.append("|");
-                    // 1 -> x, 2 -> o
-                    switch (board.get(i).get(j).state) {
-                        case 1:
-                            board_builder.append(player_1_cell.split("\n")[cell_row]);
-                            break;
-                        case 2:
-                            board_builder.append(player_2_cell.split("\n")[cell_row]);
-                            break;
-                        default:
-                            // empty cell
-                            board_builder.append(cell_spacing);
-                            break;
-                    }
+            board_builder.append(row_strings[i]);
+        }
+        board_builder.append(footer);
+        board_string = board_builder.toString();
+        return board_string;
+    }
+
+
+    // ANSI escape sequence that redraws the rows changed since the last render or update, "" if none changed.
+    // Assumes the last toString() was printed with println and the cursor is still on the line below it
+    public String get_ansi_update() {
+        StringBuilder update_builder = new StringBuilder();
+        int board_lines = rows * lines_per_row + 2;
+
+        for (int i = 0; i < rows; i++) {
+            if (!refresh_row(i)) {
+                continue;
+            }
+            int first_line = (rows - 1 - i) * lines_per_row;
+            // Up to the row's first line, rewrite it, then back down below the board
+            update_builder.append("\033[").append(board_lines - first_line).append("A\r");
+            update_builder.append(row_strings[i]);
+            update_builder.append("\033[").append(board_lines - first_line - lines_per_row).append("B");
+        }
+        return update_builder.toString();
+    }
+
+
+    // Rebuilds row i's text if any of its cells changed. Returns true if it did
+    public boolean refresh_row(int i) {
+        int[] row_states = rendered_states[i];
+        boolean changed = false;
+        for (int j = 0; j < columns; j++) {
+            int state = board.get_state(i, j);
+            if (state != row_states[j]) {
+                row_states[j] = state;
+                changed = true;
+            }
+        }
+        if (!changed) {
+            return false;
+        }
+
+        StringBuilder row_builder = new StringBuilder(row_separator.length() * lines_per_row);
+        row_builder.append(row_separator);
+        for (int cell_row = 0; cell_row < 3; cell_row++) {
+            // For each column
+            for (int j = 0; j < columns; j++) {
+                row_builder.append("|");
+                // 1 -> x, 2 -> o
+                switch (row_states[j]) {
+                    case 1:
+                        row_builder.append(player_1_cell_rows[cell_row]);
+                        break;
+                    case 2:
+                        row_builder.append(player_2_cell_rows[cell_row]);
+                        break;
+                    default:
+                        // empty cell
+                        row_builder.append(cell_spacing);
+                        break;
                 }
-                // Add most right wall and newline
-                board_builder.append("|\n");
             }
+            // Add most right wall and newline
+            row_builder.append("|\n");
         }
+        row_strings[i] = row_builder.toString();
+        board_string = null;
+        return true;
+    }
+
+
+    // Floor and column indices, which never change
+    public String build_footer() {
         // Add floor
-        board_builder.append("+" + " ------- +".repeat(columns));
+        StringBuilder footer_builder = new StringBuilder("+" + " ------- +".repeat(columns));
 
         // Add column indices below floor
-        board_builder.append("\n" + " ".repeat(5));
+        footer_builder.append("\n" + " ".repeat(5));
         for (int i = 0 + column_base; i < columns + column_base; i++) {
-            board_builder.append(i + cell_spacing);
+            footer_builder.append(i + cell_spacing);
         }
-        board_builder.append(" ".repeat(5));
-        return board_builder.toString();
+        footer_builder.append(" ".repeat(5));
+        return footer_builder.toString();
     }
 }
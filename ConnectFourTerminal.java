@@ -0,0 +1,142 @@
+import java.util.*;
+
+
+// Terminal adapter on top of a ConnectFour game: shows the board, reads the client's moves from the keyboard and plays
+// music. The game itself holds none of this, so headless games (simulation, server hosting) never build any of it.
+public class ConnectFourTerminal {
+    final ConnectFour connect_four;
+    // Renders connect_four's board
+    final ConnectFourDisplay board_display;
+
+    // For user input. Created on first interactive turn
+    Scanner scanner;
+    // To play music. Created on first interactive turn
+    MusicPlayer music_player;
+
+
+    ConnectFourTerminal(ConnectFour connect_four) {
+        this.connect_four = connect_four;
+        this.board_display = new ConnectFourDisplay(connect_four.board, connect_four.column_base);
+    }
+
+
+    // Gets and checks user column input before inserting into column
+    // Returns successfully placed column index, or -1 for TIE
+    public int client_insert() {
+        // Display current board state
+        System.out.println(board_display.toString());
+
+        if (connect_four.is_tie()) {
+            System.out.println("TIE! No game spaces remaining.");
+            connect_four.record_result(0);
+            return -1;
+        }
+
+        // Play jeopardy theme while client is chosing column
+        if (connect_four.client_player == 1) {
+            MusicPlayer player = get_music_player();
+            player.start(player.jeopardy_theme_file_path, true);
+        }
+
+        // Loop until valid input is received
+        while (true) {
+            System.out.println("Enter column index: ");
+            String next_line = get_scanner().nextLine();
+            int column_index;
+
+            try {
+                // Attempt to parse to int
+                column_index = Integer.parseInt(next_line);
+            }
+            catch (NumberFormatException e) {
+                System.out.println("Invalid input; expected an integer. Received: " + next_line);
+                continue;
+            }
+            // Attempt to insert node
+            // If node is not within column bounds or column is full
+            if (connect_four.insert_node(column_index, connect_four.client_player) == -1) {
+                System.out.println("Invalid input; column index out of bounds or column is fully occupied. Received: " + column_index);
+                continue;
+            }
+            client_inserted(column_index);
+
+            // Pause music once client has given valid input
+            if (connect_four.client_player == 1) {
+                get_music_player().pause();
+            }
+
+            // Return inserted column index
+            return column_index;
+        }
+    }
+
+
+    // Inserts a column chosen without terminal input (eg: by the AI player), showing the board before and after
+    // Returns successfully placed column index, -1 for TIE, or -2 if invalid
+    public int client_insert(int column_index) {
+        // Display current board state
+        System.out.println(board_display.toString());
+
+        if (connect_four.is_tie()) {
+            System.out.println("TIE! No game spaces remaining.");
+            connect_four.record_result(0);
+            return -1;
+        }
+
+        if (connect_four.insert_node(column_index, connect_four.client_player) == -1) {
+            return -2;
+        }
+        client_inserted(column_index);
+        return column_index;
+    }
+
+
+    // Records a successful client move and prints the board after it
+    public void client_inserted(int column_index) {
+        boolean won = connect_four.client_inserted(column_index);
+
+        // Print updated board
+        System.out.println(board_display.toString());
+        System.out.println("Successfully inserted node at index: " + column_index);
+
+        // Client won (still need YOU WIN from opponent to exit)
+        if (won) {
+            System.out.println("You win! Waiting for opponent confirmation...");
+        }
+    }
+
+
+    // Terminal input adapter, built on first use
+    public Scanner get_scanner() {
+        if (scanner == null) {
+            scanner = new Scanner(System.in);
+        }
+        return scanner;
+    }
+
+    // Audio adapter, built on first use
+    public MusicPlayer get_music_player() {
+        if (music_player == null) {
+            music_player = new MusicPlayer();
+        }
+        return music_player;
+    }
+
+    // To display board
+    public String toString() {
+        return board_display.toString();
+    }
+
+    // Display nice message at the beginning of the game
+    public String start_message() {
+        StringBuilder message_builder = new StringBuilder();
+        message_builder.append("-- You are Player " + connect_four.client_player + " --\n");
+        if (connect_four.columns != Board.default_columns || connect_four.rows != Board.default_rows ||
+            connect_four.positions_to_win != Board.default_positions_to_win) {
+            message_builder.append("-- " + connect_four.columns + "x" + connect_four.rows + " board, " +
+                connect_four.positions_to_win + " in a row --\n");
+        }
+        message_builder.append(connect_four.client_player == 1 ? board_display.player_1_cell : board_display.player_2_cell);
+        return message_builder.toString();
+    }
+}
@@ -0,0 +1,109 @@
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+// Prints console messages on a background thread so callers never block on System.out.
+// At most messages_per_second lines are printed; lines over the rate, or that find the queue full, are dropped and
+// counted, and the count is printed with the next line that gets through.
+// Set enabled to false to turn the sink off entirely.
+public class ConsoleSink {
+    static volatile boolean enabled = true;
+    static final int queue_capacity = 1024;
+    static final int messages_per_second = 200;
+
+    static final BlockingQueue<String> queue = new ArrayBlockingQueue<String>(queue_capacity);
+    static final AtomicLong dropped_messages = new AtomicLong();
+    // Messages queued so far, and how many of them the printer has finished with (printed, or dropped over the rate).
+    // drain() compares the two, as an empty queue can still leave a batch being printed
+    static final AtomicLong queued_messages = new AtomicLong();
+    static volatile long handled_messages = 0;
+    static Thread printer_thread;
+
+
+    // Queues message for printing. Never blocks
+    public static void log(String message) {
+        if (!enabled) {
+            return;
+        }
+        start_printer();
+        if (queue.offer(message)) {
+            queued_messages.incrementAndGet();
+        }
+        else {
+            dropped_messages.incrementAndGet();
+        }
+    }
+
+
+    // Waits (up to timeout_milliseconds) for the messages queued so far to be printed and flushed, eg: before
+    // System.exit()
+    public static void drain(long timeout_milliseconds) {
+        long deadline = System.currentTimeMillis() + timeout_milliseconds;
+        long target = queued_messages.get();
+        while (handled_messages < target && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(1);
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+
+    public static synchronized void start_printer() {
+        if (printer_thread != null) {
+            return;
+        }
+        printer_thread = new Thread(ConsoleSink::print_messages, "ConsoleSink");
+        printer_thread.setDaemon(true);
+        printer_thread.start();
+    }
+
+
+    // Printer thread loop: one batched write per wake-up, limited to messages_per_second
+    public static void print_messages() {
+        StringBuilder batch = new StringBuilder();
+        long window_start = System.nanoTime();
+        int window_count = 0;
+        long handled = 0;
+
+        while (true) {
+            String message;
+            try {
+                message = queue.take();
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+
+            do {
+                handled++;
+                long now = System.nanoTime();
+                if (now - window_start >= 1_000_000_000L) {
+                    window_start = now;
+                    window_count = 0;
+                }
+                if (window_count >= messages_per_second) {
+                    dropped_messages.incrementAndGet();
+                    continue;
+                }
+                window_count++;
+
+                long dropped = dropped_messages.getAndSet(0);
+                if (dropped > 0) {
+                    batch.append("(").append(dropped).append(" console messages dropped)\n");
+                }
+                batch.append(message).append('\n');
+            }
+            while ((message = queue.poll()) != null);
+
+            if (batch.length() > 0) {
+                System.out.print(batch);
+                System.out.flush();
+                batch.setLength(0);
+            }
+            handled_messages = handled;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+// Append-only binary log of every move played, for keeping game history across restarts.
+// Callers only copy a fixed-size record into an in-memory buffer; a background thread swaps buffers and writes each
+// batch with one FileChannel write and one fsync (group commit), so the move path never touches the disk.
+// The log is a directory of segments (game_log_000001.bin, ...). A new segment is started on every open and whenever
+// the current one passes segment_bytes, so old segments can be archived or deleted whole.
+//
+// Segment layout (little-endian):
+//   header: magic "C4GL", version (int), record size (int), segment number (int)
+//   records, record_size bytes each:
+//     game id (long), timestamp in epoch milliseconds (long), move number (short), type (byte), player (byte),
+//     column (byte, base-0, -1 for results), 3 reserved bytes
+// A result record's player is the winner, 0 for a tie. An undo record (from version 2) takes back the move with its
+// move number.
+public class GameLog {
+    static final byte[] magic = {'C', '4', 'G', 'L'};
+    static final int version = 2;
+    static final int header_size = 16;
+    static final int record_size = 24;
+
+    // Record types
+    static final int move_record = 0;
+    static final int result_record = 1;
+    static final int undo_record = 2;
+
+    static final long default_segment_bytes = 64L * 1024 * 1024;
+    static final long default_commit_milliseconds = 10;
+    // Records buffered between commits before callers have to wait for the writer
+    static final int buffer_records = 4096;
+    // Low bits of new game ids
+    static final AtomicLong game_counter = new AtomicLong(ThreadLocalRandom.current().nextInt(1 << 20));
+
+    final Path directory;
+    final long segment_bytes;
+    final long commit_milliseconds;
+
+    // Callers append to active_buffer; the writer swaps it with write_buffer and writes that one out
+    final Object lock = new Object();
+    ByteBuffer active_buffer = ByteBuffer.allocate(buffer_records * record_size).order(ByteOrder.LITTLE_ENDIAN);
+    ByteBuffer write_buffer = ByteBuffer.allocate(buffer_records * record_size).order(ByteOrder.LITTLE_ENDIAN);
+
+    FileChannel channel;
+    int segment_number;
+    long segment_size;
+    // Set when a commit fails, so the next one starts a new segment rather than append after a partial record
+    boolean segment_failed = false;
+    // Records lost to failed commits
+    final AtomicLong lost_records = new AtomicLong();
+
+    final Thread writer_thread;
+    volatile boolean running = true;
+
+
+    GameLog(String directory) throws IOException {
+        this(directory, default_segment_bytes, default_commit_milliseconds);
+    }
+
+
+    GameLog(String directory, long segment_bytes, long commit_milliseconds) throws IOException {
+        this.directory = Paths.get(directory);
+        this.segment_bytes = segment_bytes;
+        this.commit_milliseconds = commit_milliseconds;
+
+        Files.createDirectories(this.directory);
+        this.segment_number = get_last_segment_number(this.directory);
+        start_segment();
+
+        this.writer_thread = new Thread(this::write_batches, "GameLog");
+        this.writer_thread.setDaemon(true);
+        this.writer_thread.start();
+    }
+
+
+    // Ids are creation time in the high bits and a counter (from a random start) in the low 20 bits, so they are
+    // unique within a process and unlikely to clash between processes
+    public static long new_game_id() {
+        return (System.currentTimeMillis() << 20) | (game_counter.getAndIncrement() & 0xFFFFF);
+    }
+
+
+    public void append_move(long game_id, int move_number, int player, int column) {
+        append(game_id, move_number, move_record, player, column);
+    }
+
+
+    public void append_undo(long game_id, int move_number, int player, int column) {
+        append(game_id, move_number, undo_record, player, column);
+    }
+
+
+    public void append_result(long game_id, int move_number, int winner) {
+        append(game_id, move_number, result_record, winner, -1);
+    }
+
+
+    // Copies one record into the active buffer. Only waits if the writer has fallen a whole buffer behind
+    public void append(long game_id, int move_number, int type, int player, int column) {
+        long timestamp = System.currentTimeMillis();
+        synchronized (lock) {
+            while (active_buffer.remaining() < record_size) {
+                if (!running) {
+                    return;
+                }
+                lock.notifyAll();
+                try {
+                    lock.wait();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            active_buffer.putLong(game_id);
+            active_buffer.putLong(timestamp);
+            active_buffer.putShort((short) move_number);
+            active_buffer.put((byte) type);
+            active_buffer.put((byte) player);
+            active_buffer.put((byte) column);
+            active_buffer.put((byte) 0);
+            active_buffer.putShort((short) 0);
+        }
+    }
+
+
+    // Writer thread loop: every commit interval (or sooner if the buffer fills), write and fsync what was appended
+    public void write_batches() {
+        while (true) {
+            boolean stopping;
+            synchronized (lock) {
+                if (running && active_buffer.position() < active_buffer.capacity() / 2) {
+                    try {
+                        lock.wait(commit_milliseconds);
+                    }
+                    catch (InterruptedException e) {}
+                }
+                stopping = !running;
+
+                ByteBuffer appended = active_buffer;
+                active_buffer = write_buffer;
+                write_buffer = appended;
+                // Wake callers waiting for space
+                lock.notifyAll();
+            }
+
+            int records = write_buffer.position() / record_size;
+            try {
+                commit(write_buffer);
+            }
+            catch (IOException e) {
+                segment_failed = true;
+                long lost = lost_records.addAndGet(records);
+                Log.error("GameLog: could not write " + records + " records to " + directory + " (" + e +
+                    "); " + lost + " records lost so far");
+            }
+            write_buffer.clear();
+
+            if (stopping) {
+                return;
+            }
+        }
+    }
+
+
+    // Writes a batch of whole records and forces it to disk
+    public void commit(ByteBuffer batch) throws IOException {
+        batch.flip();
+        if (!batch.hasRemaining()) {
+            return;
+        }
+        if (segment_failed || (segment_size + batch.remaining() > segment_bytes && segment_size > header_size)) {
+            channel.close();
+            start_segment();
+            segment_failed = false;
+        }
+        while (batch.hasRemaining()) {
+            segment_size += channel.write(batch);
+        }
+        channel.force(false);
+    }
+
+
+    // Opens the next segment file and writes its header
+    public void start_segment() throws IOException {
+        segment_number++;
+        channel = FileChannel.open(get_segment_path(directory, segment_number),
+            StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+
+        ByteBuffer header = ByteBuffer.allocate(header_size).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(magic);
+        header.putInt(version);
+        header.putInt(record_size);
+        header.putInt(segment_number);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        segment_size = header_size;
+    }
+
+
+    // Writes everything appended so far and closes the current segment
+    public void close() throws IOException {
+        synchronized (lock) {
+            running = false;
+            lock.notifyAll();
+        }
+        try {
+            writer_thread.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+
+    public static Path get_segment_path(Path directory, int segment_number) {
+        return directory.resolve(String.format("game_log_%06d.bin", segment_number));
+    }
+
+
+    // Highest segment number in directory, 0 if there are none
+    public static int get_last_segment_number(Path directory) throws IOException {
+        int last_segment_number = 0;
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory, "game_log_*.bin")) {
+            for (Path segment : segments) {
+                String name = segment.getFileName().toString();
+                try {
+                    last_segment_number = Math.max(last_segment_number,
+                        Integer.parseInt(name.substring("game_log_".length(), name.length() - ".bin".length())));
+                }
+                catch (NumberFormatException e) {}
+            }
+        }
+        return last_segment_number;
+    }
+}
@@ -0,0 +1,412 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+
+// Reads GameLog segments for replay and offline analysis. Segments are memory-mapped and scanned record by record in
+// place; games are tracked in primitive arrays while their moves arrive and reported through one reused GameSummary
+// when their result record is reached, so scanning allocates next to nothing per game.
+// Segments are scanned in parallel. A game whose moves span two segments (only around a rollover) has no start or
+// no result in either segment and is counted as incomplete.
+// ie: java GameLogReader game_logs
+//     java GameLogReader game_logs winner=1 min_length=7 max_length=20 opening=3,3,4
+//     java GameLogReader game_logs replay <game id>
+public class GameLogReader {
+    // Moves kept per game for opening filters and summaries, 7 bits each so any column up to Board.maximum_size fits
+    static final int bits_per_move = 7;
+    static final int opening_moves = Long.SIZE / bits_per_move;
+    static final long empty_slot = -1L;
+
+    final List<Path> segment_paths;
+
+
+    // One finished game. Reused for every game on a scanning thread, so copy out anything kept
+    static class GameSummary {
+        long game_id;
+        // 0 for a tie
+        int winner;
+        int length;
+        long start_timestamp;
+        long end_timestamp;
+        // First opening_moves columns (base-0), bits_per_move bits each, first move lowest
+        long opening;
+
+        public int get_opening_column(int move_index) {
+            return (int) (opening >>> (move_index * bits_per_move)) & ((1 << bits_per_move) - 1);
+        }
+    }
+
+
+    // Which games to report. Unset fields match everything
+    static class Filter {
+        int winner = -1;
+        int min_length = 0;
+        int max_length = Integer.MAX_VALUE;
+        // Base-0 columns the game must start with
+        int[] opening = new int[0];
+
+        public boolean matches(GameSummary game) {
+            if (winner != -1 && game.winner != winner) {
+                return false;
+            }
+            if (game.length < min_length || game.length > max_length) {
+                return false;
+            }
+            for (int i = 0; i < opening.length; i++) {
+                if (i >= game.length || game.get_opening_column(i) != opening[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+
+    // Aggregate results of a scan. Merged across scanning threads
+    static class Statistics {
+        long records = 0;
+        long games = 0;
+        long incomplete_games = 0;
+        // Matching games by winner: [0] ties, [1] Player 1, [2] Player 2
+        final long[] wins = new long[3];
+        long total_length = 0;
+
+
+        public void add(GameSummary game) {
+            games++;
+            wins[game.winner]++;
+            total_length += game.length;
+        }
+
+
+        public Statistics merge(Statistics other) {
+            records += other.records;
+            games += other.games;
+            incomplete_games += other.incomplete_games;
+            for (int i = 0; i < wins.length; i++) {
+                wins[i] += other.wins[i];
+            }
+            total_length += other.total_length;
+            return this;
+        }
+    }
+
+
+    // Games started but not yet finished in the segment being scanned, in open-addressed primitive arrays
+    static class OpenGames {
+        long[] game_ids;
+        int[] lengths;
+        long[] start_timestamps;
+        long[] openings;
+        int size = 0;
+
+        OpenGames(int capacity) {
+            allocate(capacity);
+        }
+
+
+        public void allocate(int capacity) {
+            game_ids = new long[capacity];
+            Arrays.fill(game_ids, empty_slot);
+            lengths = new int[capacity];
+            start_timestamps = new long[capacity];
+            openings = new long[capacity];
+        }
+
+
+        // Slot holding game_id, adding it if absent
+        public int get_slot(long game_id, long timestamp) {
+            int slot = find_slot(game_id);
+            if (game_ids[slot] == empty_slot) {
+                if ((size + 1) * 2 > game_ids.length) {
+                    grow();
+                    slot = find_slot(game_id);
+                }
+                game_ids[slot] = game_id;
+                lengths[slot] = 0;
+                start_timestamps[slot] = timestamp;
+                openings[slot] = 0L;
+                size++;
+            }
+            return slot;
+        }
+
+
+        // Slot holding game_id, or the empty slot where it would go
+        public int find_slot(long game_id) {
+            int mask = game_ids.length - 1;
+            int slot = get_home_slot(game_id, mask);
+            while (game_ids[slot] != empty_slot && game_ids[slot] != game_id) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+
+        public static int get_home_slot(long game_id, int mask) {
+            return (int) ((game_id * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+        }
+
+
+        // Removes the game in slot, shifting back later entries of the same probe run
+        public void remove(int slot) {
+            int mask = game_ids.length - 1;
+            int next = slot;
+            while (true) {
+                next = (next + 1) & mask;
+                if (game_ids[next] == empty_slot) {
+                    break;
+                }
+                int home = get_home_slot(game_ids[next], mask);
+                // Move next into the gap unless its home lies cyclically in (slot, next]
+                boolean stays = slot <= next ? (home > slot && home <= next) : (home > slot || home <= next);
+                if (!stays) {
+                    game_ids[slot] = game_ids[next];
+                    lengths[slot] = lengths[next];
+                    start_timestamps[slot] = start_timestamps[next];
+                    openings[slot] = openings[next];
+                    slot = next;
+                }
+            }
+            game_ids[slot] = empty_slot;
+            size--;
+        }
+
+
+        public void grow() {
+            long[] old_game_ids = game_ids;
+            int[] old_lengths = lengths;
+            long[] old_start_timestamps = start_timestamps;
+            long[] old_openings = openings;
+            allocate(old_game_ids.length * 2);
+
+            for (int i = 0; i < old_game_ids.length; i++) {
+                if (old_game_ids[i] != empty_slot) {
+                    int slot = find_slot(old_game_ids[i]);
+                    game_ids[slot] = old_game_ids[i];
+                    lengths[slot] = old_lengths[i];
+                    start_timestamps[slot] = old_start_timestamps[i];
+                    openings[slot] = old_openings[i];
+                }
+            }
+        }
+    }
+
+
+    GameLogReader(String directory) throws IOException {
+        try (Stream<Path> paths = Files.list(Paths.get(directory))) {
+            this.segment_paths = paths
+                .filter(path -> path.getFileName().toString().matches("game_log_\\d+\\.bin"))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+    }
+
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java GameLogReader <directory> [winner=<n>] [min_length=<n>] [max_length=<n>] " +
+                "[opening=<c>,<c>,...]\n       java GameLogReader <directory> replay <game id>");
+            System.exit(0);
+        }
+        GameLogReader reader = new GameLogReader(args[0]);
+
+        if (args.length > 2 && args[1].equals("replay")) {
+            long game_id = Long.parseLong(args[2]);
+            System.out.println("Game " + game_id + ": " + Arrays.toString(reader.get_moves(game_id)));
+            return;
+        }
+
+        Filter filter = new Filter();
+        for (int i = 1; i < args.length; i++) {
+            String[] argument = args[i].split("=");
+            switch (argument[0]) {
+                case "winner":
+                    filter.winner = Integer.parseInt(argument[1]);
+                    break;
+                case "min_length":
+                    filter.min_length = Integer.parseInt(argument[1]);
+                    break;
+                case "max_length":
+                    filter.max_length = Integer.parseInt(argument[1]);
+                    break;
+                case "opening":
+                    filter.opening = Arrays.stream(argument[1].split(",")).mapToInt(Integer::parseInt).toArray();
+                    if (filter.opening.length > opening_moves) {
+                        System.out.println("An opening can be at most " + opening_moves + " moves: " + args[i]);
+                        System.exit(0);
+                    }
+                    break;
+                default:
+                    System.out.println("Unknown filter: " + args[i]);
+                    System.exit(0);
+            }
+        }
+
+        long start_time = System.nanoTime();
+        Statistics statistics = reader.scan(filter, game -> {});
+        double seconds = (System.nanoTime() - start_time) / 1_000_000_000.0;
+        System.out.println(get_report(statistics, reader.segment_paths.size(), seconds));
+    }
+
+
+    // Scans every segment in parallel, passing matching games to consumer (from several threads at once)
+    public Statistics scan(Filter filter, Consumer<GameSummary> consumer) {
+        return segment_paths.parallelStream()
+            .map(segment_path -> scan_segment(segment_path, filter, consumer))
+            .collect(Statistics::new, Statistics::merge, Statistics::merge);
+    }
+
+
+    public Statistics scan_segment(Path segment_path, Filter filter, Consumer<GameSummary> consumer) {
+        Statistics statistics = new Statistics();
+        GameSummary game = new GameSummary();
+        OpenGames open_games = new OpenGames(1024);
+
+        try (FileChannel channel = FileChannel.open(segment_path, StandardOpenOption.READ)) {
+            MappedByteBuffer segment = map_segment(channel);
+            if (segment == null) {
+                System.out.println("GameLogReader: skipping " + segment_path + " (not a game log segment)");
+                return statistics;
+            }
+
+            // A torn last record (from a crash mid-write) is ignored
+            long record_count = (segment.limit() - GameLog.header_size) / GameLog.record_size;
+            for (int position = GameLog.header_size; record_count > 0; position += GameLog.record_size) {
+                record_count--;
+                statistics.records++;
+
+                long game_id = segment.getLong(position);
+                long timestamp = segment.getLong(position + 8);
+                int type = segment.get(position + 18);
+                int player = segment.get(position + 19);
+                int column = segment.get(position + 20);
+
+                int slot = open_games.get_slot(game_id, timestamp);
+                if (type == GameLog.move_record) {
+                    // Started in an earlier segment: keep the length negative so it is reported as incomplete
+                    if (open_games.lengths[slot] == 0 && segment.getShort(position + 16) != 1) {
+                        open_games.lengths[slot] = Integer.MIN_VALUE / 2;
+                    }
+                    int length = open_games.lengths[slot]++;
+                    if (length >= 0 && length < opening_moves) {
+                        open_games.openings[slot] |= (long) (column & ((1 << bits_per_move) - 1)) <<
+                            (length * bits_per_move);
+                    }
+                    continue;
+                }
+                if (type == GameLog.undo_record) {
+                    // Taking back a move from an earlier segment leaves the game incomplete too
+                    if (open_games.lengths[slot] <= 0) {
+                        open_games.lengths[slot] = Integer.MIN_VALUE / 2;
+                        continue;
+                    }
+                    int length = --open_games.lengths[slot];
+                    if (length >= 0 && length < opening_moves) {
+                        open_games.openings[slot] &= ~(((1L << bits_per_move) - 1) << (length * bits_per_move));
+                    }
+                    continue;
+                }
+
+                // Result record: the game is complete, unless it started in an earlier segment
+                int length = open_games.lengths[slot];
+                if (length <= 0 || player < 0 || player > 2) {
+                    open_games.remove(slot);
+                    statistics.incomplete_games++;
+                    continue;
+                }
+                game.game_id = game_id;
+                game.winner = player;
+                game.length = length;
+                game.start_timestamp = open_games.start_timestamps[slot];
+                game.end_timestamp = timestamp;
+                game.opening = open_games.openings[slot];
+                open_games.remove(slot);
+
+                if (filter.matches(game)) {
+                    statistics.add(game);
+                    consumer.accept(game);
+                }
+            }
+            statistics.incomplete_games += open_games.size;
+        }
+        catch (IOException e) {
+            System.out.println("GameLogReader: could not read " + segment_path + ": " + e.getMessage());
+        }
+        return statistics;
+    }
+
+
+    // Maps a segment read-only, null if its header is not a GameLog header this reader understands
+    public static MappedByteBuffer map_segment(FileChannel channel) throws IOException {
+        if (channel.size() < GameLog.header_size) {
+            return null;
+        }
+        MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < GameLog.magic.length; i++) {
+            if (segment.get(i) != GameLog.magic[i]) {
+                return null;
+            }
+        }
+        // Version 1 segments are the same without undo records
+        int version = segment.getInt(4);
+        if (version < 1 || version > GameLog.version || segment.getInt(8) != GameLog.record_size) {
+            return null;
+        }
+        return segment;
+    }
+
+
+    // Every move of one game (base-0 columns, in order), for replaying a single game. Scans all segments
+    public int[] get_moves(long game_id) throws IOException {
+        int[] moves = new int[0];
+        int length = 0;
+
+        for (Path segment_path : segment_paths) {
+            try (FileChannel channel = FileChannel.open(segment_path, StandardOpenOption.READ)) {
+                MappedByteBuffer segment = map_segment(channel);
+                if (segment == null) {
+                    continue;
+                }
+                long record_count = (segment.limit() - GameLog.header_size) / GameLog.record_size;
+                for (int position = GameLog.header_size; record_count > 0; position += GameLog.record_size) {
+                    record_count--;
+                    int type = segment.get(position + 18);
+                    if (segment.getLong(position) != game_id || type == GameLog.result_record) {
+                        continue;
+                    }
+                    if (type == GameLog.undo_record) {
+                        length = Math.max(0, length - 1);
+                        continue;
+                    }
+                    if (length == moves.length) {
+                        moves = Arrays.copyOf(moves, Math.max(8, length * 2));
+                    }
+                    moves[length++] = segment.get(position + 20);
+                }
+            }
+        }
+        return Arrays.copyOf(moves, length);
+    }
+
+
+    public static String get_report(Statistics statistics, int segment_count, double seconds) {
+        return "GameLogReader: " + statistics.records + " records in " + segment_count + " segments\n" +
+            "  Matching games:\t" + statistics.games + "\n" +
+            "  Player 1 wins:\t" + statistics.wins[1] + "\n" +
+            "  Player 2 wins:\t" + statistics.wins[2] + "\n" +
+            "  Ties:\t\t\t" + statistics.wins[0] + "\n" +
+            "  Average length:\t" +
+            String.format("%.2f", (double) statistics.total_length / Math.max(1, statistics.games)) + " moves\n" +
+            "  Incomplete games:\t" + statistics.incomplete_games + "\n" +
+            "  Throughput:\t\t" + String.format("%,.0f", statistics.records / seconds) + " records/s (" +
+            String.format("%.2f", seconds) + " s)";
+    }
+}
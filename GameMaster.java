@@ -1,77 +1,382 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.InetAddress;
+import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
 import java.util.concurrent.*;
 
 
 // Establishes connection with opponent. Blocks until connection is made and prompts terminal input for game moves
 public class GameMaster {
-    // TCP socket and helper objects to communicate game commands
-    final Socket game_socket;
-    final PrintWriter game_socket_out;
-    final BufferedReader game_socket_in;
-
-    // Matchmaker to find and establish game_socket connection using UDP and TCP
+    // TCP socket and helper objects to communicate game commands.
+    // Output is buffered and only flushed when this client starts waiting for the opponent (see flush_messages()),
+    // so every message sent in a turn goes out in one write.
+    // All of them are replaced when the game is resumed over a new connection (see resume_session())
+    volatile Socket game_socket;
+    PrintWriter game_socket_out;
+    BufferedReader game_socket_in;
+    // Raw streams under the text helpers, used by the binary protocol
+    OutputStream game_socket_stream_out;
+    BufferedInputStream game_socket_stream_in;
+
+    // Set if both peers negotiated BinaryProtocol, see negotiate_protocol()
+    boolean binary_protocol = false;
+    // Frames sent and received so far, for binary sequence numbers
+    int sent_frames = 0;
+    int received_frames = 0;
+    // Reused for every binary frame sent
+    final byte[] frame_buffer = new byte[2];
+    // How long Player 1 waits for a HELLO after connecting
+    final int hello_timeout = 300;
+    // How long Player 1 waits for Player 2 to acknowledge a board other than the classic one
+    final int board_timeout = 1000;
+    // Set if Player 1 kept the text protocol after offering binary, so a HELLO arriving late must be skipped
+    boolean skip_late_hello = false;
+    // When this client's last move was sent, for Metrics.move_reply_time. 0 once the reply arrived
+    long move_sent_time = 0;
+
+    // Set if a dropped connection can be resumed instead of ending the game: both peers negotiated the binary protocol
+    // over a LAN match, and so both know the session token.
+    // Player 1 keeps listening on its TCP port for the whole game; Player 2 reconnects there and sends
+    //   RESUME:<session token, hex>:<moves on its board>
+    // Player 1's listener replies RESUMED:<moves on its board> straight away, even mid-turn. The side that is a move
+    // ahead resends its last move, frame sequence numbers restart from 0 and the game carries on with the same
+    // ConnectFour state.
+    // Player 1 always notices a drop within its next read, but a human Player 2 could think for longer than
+    // Player 1 waits, so it watches the connection during its turn (see watch_connection()) and reconnects at once.
+    boolean resumable = false;
+    // How long to wait for the opponent to come back before giving up on the game
+    final int resume_timeout = 15000;
+    final int reconnect_interval = 50;
+    // Player 1's address, for Player 2 to reconnect to
+    SocketAddress opponent_address;
+    // Player 1's listener for reconnections, and the ones it accepted for resume_session() to pick up
+    ServerSocket resume_server_socket;
+    final BlockingQueue<ResumeRequest> resume_requests = new ArrayBlockingQueue<ResumeRequest>(1);
+    // Runs Player 1's listener or Player 2's connection watch
+    TaskScope resume_scope;
+    // Player 2's connection watch for the current turn, and how often it checks the socket
+    volatile boolean watching = false;
+    CompletableFuture<Void> connection_watch;
+    final int watch_interval = 50;
+    // Last INSERT column sent, resent if the opponent missed it
+    int last_sent_column;
+
+    // Matchmaker to find and establish game_socket connection using UDP and TCP. null for hosted sessions
     final MatchMaker match_maker;
     // To manage the game and its logic
     final ConnectFour connect_four;
+    // Shows the game and reads moves on the terminal. null for headless sessions
+    final ConnectFourTerminal terminal;
+    // Picks this client's moves instead of terminal input. null for a human player
+    final AIPlayer ai_player;
 
     // Variable to track this player
     // 1 -> Player 1: Goes first
     // 2 -> Player 2: Takes the L
     final int client_player;
-    
+
+    // Hosted sessions (GameServer) play without printing boards or messages to the terminal
+    final boolean headless;
+    // Set once the game has ended, instead of exiting the process
+    boolean game_over = false;
+
     // Command strings
     final String insert_command = "INSERT";
     final String win_command = "YOU WIN";
     final String error_command = "ERROR";
+    final String board_command = "BOARD";
     final String l_message = new LDisplay().toString();
 
-    // Variable to change the INSERT column base since spec doesn't specify 
+    // Variable to change the INSERT column base since spec doesn't specify
     final int column_base = 1;
-    
 
 
-    GameMaster(InetAddress broadcast_address, int broadcast_port) throws IOException, InterruptedException, ExecutionException{
+    // A reconnection accepted by Player 1's resume listener: the new socket and the opponent's move count
+    static class ResumeRequest {
+        final Socket socket;
+        final int move_count;
+
+        ResumeRequest(Socket socket, int move_count) {
+            this.socket = socket;
+            this.move_count = move_count;
+        }
+    }
+
+
+    GameMaster(InetAddress broadcast_address, int broadcast_port, AIPlayer ai_player) throws IOException, InterruptedException, ExecutionException{
+        this(new MatchMaker(broadcast_address, broadcast_port), ai_player);
+    }
+
+
+    GameMaster(MatchMaker match_maker, AIPlayer ai_player) throws IOException, InterruptedException, ExecutionException{
         // Get connection
-        this.match_maker = new MatchMaker(broadcast_address, broadcast_port);
-        this.game_socket = get_socket_connection();
-        this.game_socket_out = new PrintWriter(game_socket.getOutputStream(), true);
-        this.game_socket_in = new BufferedReader(new InputStreamReader(game_socket.getInputStream()));
+        this.match_maker = match_maker;
+        open_streams(get_socket_connection());
 
         // Set client player and initialise game
         this.client_player = this.match_maker.client_player;
+        confirm_board_size();
+        this.connect_four = new ConnectFour(client_player, column_base, match_maker.columns, match_maker.rows,
+            match_maker.positions_to_win);
+        this.terminal = new ConnectFourTerminal(connect_four);
+        this.ai_player = ai_player;
+        this.headless = false;
+
+        negotiate_protocol();
+        prepare_resume();
+    }
+
+
+    // Plays over an already connected socket without matchmaking or terminal output (eg: a GameServer session)
+    GameMaster(Socket game_socket, int client_player, AIPlayer ai_player) throws IOException {
+        this.match_maker = null;
+        open_streams(game_socket);
+
+        this.client_player = client_player;
         this.connect_four = new ConnectFour(client_player, column_base);
+        this.terminal = null;
+        this.ai_player = ai_player;
+        this.headless = true;
     }
 
 
     // Blocks until TCP socket connection is established
     public Socket get_socket_connection() throws InterruptedException, ExecutionException {
-        // Create and run matchmaker task thread to get socket.
-        ExecutorService executor = Executors.newSingleThreadExecutor();
-        Future<Socket> match_maker_task = executor.submit(match_maker);
-
-        // Blocks until matchmatcher returns with socket
-        Socket socket = match_maker_task.get();
+        // Run the matchmaker in its own scope, which is closed (stopping anything it left running) once it returns
+        Socket socket;
+        try (TaskScope scope = new TaskScope()) {
+            // Blocks until matchmatcher returns with socket
+            socket = scope.fork(match_maker).get();
+        }
 
-        System.out.println("\n----------- CONNECTION ESTABLISHED -----------\n" + 
+        System.out.println("\n----------- CONNECTION ESTABLISHED -----------\n" +
             socket.getLocalAddress().getHostAddress() + ":" + socket.getLocalPort() +
             " <-----> " + socket.getInetAddress().getHostAddress() + ":" + socket.getPort());
 
-        // Shutdown matchmaker task thread
-        executor.shutdownNow();
         return socket;
 
     }
 
 
+    public void open_streams(Socket socket) throws IOException {
+        game_socket = socket;
+        game_socket_stream_out = new BufferedOutputStream(socket.getOutputStream());
+        game_socket_stream_in = new BufferedInputStream(socket.getInputStream());
+        game_socket_out = new PrintWriter(game_socket_stream_out);
+        game_socket_in = new BufferedReader(new InputStreamReader(game_socket_stream_in));
+    }
+
+
+    // Makes sure both players play the same board. Player 2 acknowledges a board other than the classic one as soon as
+    // it connects with BOARD:<columns>x<rows>x<positions to win>; an older client ignores the broadcast's size and
+    // sends nothing, so Player 1 drops the match (throwing IOException) rather than play a different game to it
+    public void confirm_board_size() throws IOException {
+        if (match_maker.is_default_board_size()) {
+            return;
+        }
+        String board_message = board_command + ":" + match_maker.columns + "x" + match_maker.rows + "x" +
+            match_maker.positions_to_win;
+
+        // Player 2 Scenario - only a broadcast's board can differ from the classic one, see MatchMaker.call()
+        if (client_player == 2) {
+            game_socket_stream_out.write((board_message + "\n").getBytes());
+            game_socket_stream_out.flush();
+            print_sent(board_message);
+            return;
+        }
+
+        // Player 1 Scenario
+        String reply;
+        game_socket.setSoTimeout(board_timeout);
+        try {
+            reply = read_line(game_socket_stream_in);
+        }
+        catch (IOException e) {
+            reply = null;
+        }
+        finally {
+            game_socket.setSoTimeout(0);
+        }
+        if (!board_message.equals(reply)) {
+            game_socket.close();
+            throw new IOException("Opponent did not accept the " + match_maker.columns + "x" + match_maker.rows +
+                " board");
+        }
+        print_received(reply);
+    }
+
+
+    // Switches to the binary protocol if both peers support it (see BinaryProtocol)
+    public void negotiate_protocol() throws IOException {
+        if (!match_maker.lan_match || match_maker.offered_protocol_version == 0) {
+            return;
+        }
+
+        // Player 2 Scenario - the opponent's broadcast offered a version, so say HELLO first and wait for the answer
+        if (client_player == 2) {
+            if (match_maker.opponent_protocol_version > 0) {
+                int agreed_version = Math.min(match_maker.offered_protocol_version, match_maker.opponent_protocol_version);
+                BinaryProtocol.write_frame(game_socket_stream_out, frame_buffer, BinaryProtocol.hello,
+                    sent_frames++, agreed_version);
+                // Player 1 is waiting on it
+                game_socket_stream_out.flush();
+                // Player 1's HELLO comes straight back; if it declined, its first text move comes instead
+                if (read_hello()) {
+                    binary_protocol = true;
+                }
+                else {
+                    sent_frames = 0;
+                }
+            }
+        }
+        // Player 1 Scenario - an opponent that saw our offer says HELLO straight away; older clients send nothing
+        else {
+            game_socket.setSoTimeout(hello_timeout);
+            try {
+                if (read_hello()) {
+                    // Only switch once the answer is on its way, so Player 2 switches too
+                    BinaryProtocol.write_frame(game_socket_stream_out, frame_buffer, BinaryProtocol.hello,
+                        sent_frames++, BinaryProtocol.version);
+                    game_socket_stream_out.flush();
+                    binary_protocol = true;
+                }
+            }
+            catch (SocketTimeoutException e) {
+                skip_late_hello = true;
+            }
+            finally {
+                game_socket.setSoTimeout(0);
+            }
+        }
+        if (binary_protocol) {
+            print("Using binary protocol version " + BinaryProtocol.version);
+        }
+    }
+
+
+    // Reads a HELLO frame if it is the next thing from the opponent; anything else is left to be read as text
+    public boolean read_hello() throws IOException {
+        game_socket_stream_in.mark(2);
+        int header = game_socket_stream_in.read();
+        if (header != -1 && (header >>> 6) == BinaryProtocol.hello) {
+            game_socket_stream_in.read();
+            received_frames++;
+            return true;
+        }
+        game_socket_stream_in.reset();
+        return false;
+    }
+
+
+    // Player 1 listens for reconnections for the rest of the game; Player 2 remembers where to reconnect to
+    public void prepare_resume() {
+        resumable = binary_protocol && match_maker.session_token != 0;
+        if (!resumable) {
+            return;
+        }
+        if (client_player == 2) {
+            opponent_address = game_socket.getRemoteSocketAddress();
+            resume_scope = new TaskScope();
+            return;
+        }
+        try {
+            resume_server_socket = new ServerSocket(match_maker.tcp_port);
+        }
+        catch (IOException e) {
+            Log.warn("GameMaster: cannot listen for reconnections on port " + match_maker.tcp_port + " (" + e + ")");
+            resumable = false;
+            return;
+        }
+        resume_scope = new TaskScope();
+        resume_scope.fork(() -> {
+            accept_resumes();
+            return null;
+        });
+    }
+
+
+    // Player 1's resume listener loop: answers every valid RESUME and hands it to resume_session(), closing the old
+    // connection so a game thread still blocked on it wakes up (or its next write fails)
+    public void accept_resumes() {
+        while (true) {
+            Socket socket;
+            try {
+                socket = resume_server_socket.accept();
+            }
+            // Closed at the end of the game
+            catch (IOException e) {
+                return;
+            }
+            try {
+                socket.setSoTimeout(resume_timeout);
+                String[] request = String.valueOf(read_line(socket.getInputStream())).split(":");
+                if (request.length != 3 || !request[0].equals("RESUME") ||
+                    Long.parseUnsignedLong(request[1], 16) != match_maker.session_token) {
+                    throw new IOException("Invalid resume request");
+                }
+                socket.setSoTimeout(0);
+                // Replied now rather than when the game thread notices the drop, which may be a long turn away.
+                // A move being played meanwhile is this client's own, so the opponent is never missing it yet
+                OutputStream stream_out = socket.getOutputStream();
+                stream_out.write(("RESUMED:" + connect_four.move_number + "\n").getBytes());
+                stream_out.flush();
+                ResumeRequest previous = resume_requests.poll();
+                if (previous != null) {
+                    previous.socket.close();
+                }
+                // Closed before queuing the new one, so it is never the new connection that gets closed
+                game_socket.close();
+                resume_requests.offer(new ResumeRequest(socket, Integer.parseInt(request[2])));
+            }
+            catch (IOException | NumberFormatException e) {
+                Metrics.parse_failures.increment();
+                try {
+                    socket.close();
+                }
+                catch (IOException close_exception) {}
+            }
+        }
+    }
+
+
+    // Stops Player 1's resume listener or Player 2's connection watch, if either is running
+    public void stop_resume_listener() {
+        watching = false;
+        if (resume_server_socket != null) {
+            try {
+                resume_server_socket.close();
+            }
+            catch (IOException e) {}
+        }
+        if (resume_scope != null) {
+            resume_scope.close();
+        }
+        ResumeRequest request;
+        while ((request = resume_requests.poll()) != null) {
+            try {
+                request.socket.close();
+            }
+            catch (IOException e) {}
+        }
+    }
+
+
+    // Plays turns until the game ends
     public void start() throws IOException {
         int current_player;
 
-        System.out.println(connect_four.start_message());
+        if (!headless) {
+            System.out.println(terminal.start_message());
+        }
 
         // Go first
         if (client_player == 1) {
@@ -82,11 +387,13 @@ public class GameMaster {
         else {
             current_player = 2;
 
-            System.out.println(connect_four.toString());
+            if (!headless) {
+                System.out.println(terminal.toString());
+            }
             opponents_turn();
         }
 
-        while(true) {
+        while(!game_over) {
             // If current_player is 1, then 3 - 1 = 2
             // If current_player is 2, then 3 - 2 = 1
             current_player = 3 - current_player;
@@ -102,82 +409,472 @@ public class GameMaster {
 
 
     public void clients_turn() throws IOException {
-        int response = connect_four.client_insert();
+        int response;
 
-        // A tie
-        if (response == -1) {
-            send_message(error_command);
-            System.exit(0);
+        if (ai_player == null) {
+            start_connection_watch();
+            try {
+                response = terminal.client_insert();
+            }
+            finally {
+                stop_connection_watch();
+            }
         }
-        send_message(insert_command + ":" + response);
+        else if (headless) {
+            // -1 from the AI means no playable column, which client_insert reports as a tie
+            int column_index = ai_player.choose_column(connect_four.board, client_player) + column_base;
+            response = connect_four.client_insert(column_index);
+        }
+        else {
+            // -1 from the AI means no playable column, which client_insert reports as a tie
+            int column_index = ai_player.choose_column(connect_four.board, client_player) + column_base;
+            response = terminal.client_insert(column_index);
+            System.out.println(ai_player.get_search_report());
+        }
+
+        // A tie, or no valid column could be chosen
+        if (response == -1 || response == -2) {
+            send_error();
+            end_game();
+            return;
+        }
+        send_insert(response);
     }
 
 
     public void opponents_turn() throws IOException {
-        System.out.println("Waiting for opponent...");
+        print("Waiting for opponent...");
 
         // Get message
+        int message = read_message();
+        // From our move until the opponent's reply, including the opponent's thinking time
+        if (move_sent_time != 0) {
+            Metrics.move_reply_time.record(System.nanoTime() - move_sent_time);
+            move_sent_time = 0;
+        }
+
+        switch (message) {
+            // Check message
+            case ProtocolParser.closed:
+                print("Opponent sent invalid input; expected game command arguments. Received: null");
+                send_error();
+                print("Exiting...");
+                end_game();
+                return;
+
+            // Check for error or win messages
+            case ProtocolParser.win:
+                print("Opponent agrees! Exiting...");
+                end_game();
+                return;
+
+            case ProtocolParser.error:
+                print("Opponent sent error message. Exiting...");
+                end_game();
+                return;
+
+            // Return error to opponent
+            case ProtocolParser.invalid:
+                send_error();
+                print("Exiting...");
+                end_game();
+                return;
+        }
+
+        // Insert node into game
+        int response = connect_four.opponent_insert(message);
+        switch (response) {
+            // Column index received is not valid
+            case -2:
+                print("Opponent send invalid index.");
+                send_error();
+                print("Exiting...");
+                end_game();
+                return;
+            // Opponent wins
+            case -1:
+                if (!headless) {
+                    System.out.println(terminal.toString());
+                }
+                print("You lose!");
+                send_win();
+                print(l_message);
+                print("Exiting...");
+                end_game();
+                return;
+        }
+    }
+
+
+    // Player 2: watches the connection while the human player picks a move, see watch_connection()
+    public void start_connection_watch() {
+        if (!resumable || client_player != 2) {
+            return;
+        }
+        int move_count = connect_four.board.get_move_count();
+        watching = true;
+        connection_watch = resume_scope.fork(() -> {
+            watch_connection(move_count);
+            return null;
+        });
+    }
+
+
+    // Waits for the connection watch to finish. Throws its IOException if the game could not be resumed
+    public void stop_connection_watch() throws IOException {
+        if (connection_watch == null) {
+            return;
+        }
+        watching = false;
+        try {
+            connection_watch.join();
+        }
+        catch (CompletionException | CancellationException e) {
+            if (e.getCause() instanceof IOException) {
+                // Stopped from the game thread, as the scope cannot be closed from one of its own tasks
+                stop_resume_listener();
+                throw (IOException) e.getCause();
+            }
+        }
+        finally {
+            connection_watch = null;
+        }
+    }
+
+
+    // Polls the socket every watch_interval until watching is cleared, and resumes the session as soon as the
+    // connection drops. Player 1 sends nothing during this client's turn, so anything read is left for read_message()
+    public void watch_connection(int move_count) throws IOException {
+        Socket socket = game_socket;
+        boolean dropped = false;
+        try {
+            socket.setSoTimeout(watch_interval);
+            while (watching) {
+                game_socket_stream_in.mark(1);
+                try {
+                    if (game_socket_stream_in.read() == -1) {
+                        dropped = true;
+                    }
+                    else {
+                        game_socket_stream_in.reset();
+                    }
+                    break;
+                }
+                catch (SocketTimeoutException e) {}
+            }
+        }
+        catch (IOException e) {
+            dropped = true;
+        }
+        finally {
+            try {
+                socket.setSoTimeout(0);
+            }
+            catch (IOException e) {}
+        }
+        if (dropped && watching) {
+            resume_session(move_count);
+        }
+    }
+
+
+    // Reads the opponent's next message, first resuming the session if the connection has dropped
+    public int read_message() throws IOException {
+        while (true) {
+            try {
+                int message = binary_protocol ? read_binary_message() : read_text_message();
+                // The opponent always says YOU WIN or ERROR before closing, so a plain close is a dropped connection
+                if (message != ProtocolParser.closed || !resumable) {
+                    return message;
+                }
+            }
+            catch (IOException e) {
+                if (!resumable) {
+                    throw e;
+                }
+            }
+            try {
+                resume_session(connect_four.board.get_move_count());
+            }
+            catch (IOException e) {
+                stop_resume_listener();
+                throw e;
+            }
+        }
+    }
+
+
+    // Reconnects to the opponent (Player 2) or waits for it to reconnect (Player 1), then resends this client's last
+    // move if the opponent never got it. move_count is this client's board as of its last message.
+    // Throws IOException if the opponent does not come back within resume_timeout
+    public void resume_session(int move_count) throws IOException {
+        print("\n-- CONNECTION WAS INTERRUPTED --\nResuming game...");
+        long start_time = System.nanoTime();
+        try {
+            game_socket.close();
+        }
+        catch (IOException e) {}
+
+        int opponent_move_count;
+        try {
+            if (client_player == 1) {
+                ResumeRequest request = resume_requests.poll(resume_timeout, TimeUnit.MILLISECONDS);
+                if (request == null) {
+                    throw new SocketTimeoutException("Opponent did not reconnect");
+                }
+                open_streams(request.socket);
+                opponent_move_count = request.move_count;
+            }
+            else {
+                opponent_move_count = reconnect(move_count);
+            }
+        }
+        catch (IOException | InterruptedException e) {
+            throw new IOException("Could not resume the game: " + e.getMessage(), e);
+        }
+
+        // Only the last move of the side that moved last can be missing
+        if (Math.abs(move_count - opponent_move_count) > 1) {
+            throw new IOException("Could not resume the game: boards differ by " +
+                Math.abs(move_count - opponent_move_count) + " moves");
+        }
+        sent_frames = 0;
+        received_frames = 0;
+        if (opponent_move_count < move_count) {
+            send_insert(last_sent_column);
+        }
+
+        Metrics.resumes.increment();
+        Metrics.time_to_resume.record(System.nanoTime() - start_time);
+        print("Game resumed in " + (System.nanoTime() - start_time) / 1_000_000 + " ms.");
+    }
+
+
+    // Player 2: connects to Player 1 again until it replies to RESUME or resume_timeout passes.
+    // Returns Player 1's move count
+    public int reconnect(int move_count) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + resume_timeout;
+        while (true) {
+            Socket socket = new Socket();
+            try {
+                socket.connect(opponent_address, Math.max(1, (int) (deadline - System.currentTimeMillis())));
+                OutputStream stream_out = socket.getOutputStream();
+                stream_out.write(("RESUME:" + Long.toHexString(match_maker.session_token) + ":" + move_count + "\n")
+                    .getBytes());
+                stream_out.flush();
+
+                // Player 1's listener replies straight away, but the read must not outlast the deadline
+                socket.setSoTimeout(Math.max(1, (int) (deadline - System.currentTimeMillis())));
+                String[] reply = String.valueOf(read_line(socket.getInputStream())).split(":");
+                if (reply.length != 2 || !reply[0].equals("RESUMED")) {
+                    throw new IOException("Invalid resume reply");
+                }
+                int opponent_move_count = Integer.parseInt(reply[1]);
+                socket.setSoTimeout(0);
+                open_streams(socket);
+                return opponent_move_count;
+            }
+            catch (IOException | NumberFormatException e) {
+                socket.close();
+                if (System.currentTimeMillis() + reconnect_interval >= deadline) {
+                    throw new SocketTimeoutException("Opponent could not be reached");
+                }
+                Thread.sleep(reconnect_interval);
+            }
+        }
+    }
+
+
+    // Reads one short line straight from stream, so nothing after it is buffered away from the stream's next reader.
+    // Returns null at the end of the stream
+    public static String read_line(InputStream stream) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int character;
+        while ((character = stream.read()) != '\n') {
+            if (character == -1) {
+                return null;
+            }
+            if (line.length() >= 64) {
+                throw new IOException("Line too long");
+            }
+            line.append((char) character);
+        }
+        return line.toString();
+    }
+
+
+    // Reads the next text command. Returns its column index, or ProtocolParser.win, error, invalid or closed
+    public int read_text_message() throws IOException {
+        flush_messages();
+        if (skip_late_hello) {
+            skip_late_hello = false;
+            read_hello();
+        }
         String input = game_socket_in.readLine();
-        // Check message
         if (input == null) {
-            System.out.println("Opponent sent invalid input; expected game command arguments. Received: "+ input);
-            send_message(error_command);
-            System.out.println("Exiting...");
-            System.exit(0);
+            return ProtocolParser.closed;
         }
 
-        System.out.println("Received: " + input);
+        print_received(input);
 
-        // Check for error or win messages
         switch (input) {
             case win_command:
-                System.out.println("Opponent agrees! Exiting...");
-                System.exit(0);
-            
+                return ProtocolParser.win;
             case error_command:
-                System.out.println("Opponent sent error message. Exiting...");
-                System.exit(0);
+                return ProtocolParser.error;
         }
 
-        int column_index = -1;
-
         try {
             // Attempt to split string and parse int
-            column_index = Integer.parseInt(input.split(":")[1]);
+            int column_index = Integer.parseInt(input.split(":")[1]);
+            // A negative column is malformed, and the most negative ones would clash with the special return values
+            if (column_index >= 0) {
+                return column_index;
+            }
         }
-        catch (Exception e) {
-            // Catch and return error to opponent
-            System.out.println("Opponent sent invalid input; expected an integer after " +
-                insert_command + ":. Received: " + input);
-            send_message(error_command);
-            System.out.println("Exiting...");
-            System.exit(0);
+        catch (Exception e) {}
+
+        Metrics.parse_failures.increment();
+        print("Opponent sent invalid input; expected an integer after " +
+            insert_command + ":. Received: " + input);
+        return ProtocolParser.invalid;
+    }
+
+
+    // Reads the next binary frame. Returns the same values as read_text_message
+    public int read_binary_message() throws IOException {
+        flush_messages();
+        int frame = BinaryProtocol.read_frame(game_socket_stream_in);
+        if (frame == BinaryProtocol.closed) {
+            return ProtocolParser.closed;
+        }
+        if (BinaryProtocol.get_sequence(frame) != (received_frames++ & BinaryProtocol.sequence_mask)) {
+            Metrics.parse_failures.increment();
+            print("Opponent sent a frame out of sequence.");
+            return ProtocolParser.invalid;
         }
 
-        // Insert node into game
-        int response = connect_four.opponent_insert(column_index);
-        switch (response) {
-            // Column index received is not valid
-            case -2:
-                System.out.println("Opponent send invalid index.");
-                send_message(error_command);
-                System.out.println("Exiting...");
-                System.exit(0);
-            // Opponent wins
-            case -1:
-                System.out.println(connect_four.toString());
-                System.out.println("You lose!");
-                send_message(win_command);
-                System.out.println(l_message);
-                System.out.println("Exiting...");
-                System.exit(0);
+        switch (BinaryProtocol.get_type(frame)) {
+            case BinaryProtocol.insert:
+                if (echo_messages()) {
+                    Log.info("Received: " + insert_command + ":" + BinaryProtocol.get_payload(frame));
+                }
+                return BinaryProtocol.get_payload(frame);
+            case BinaryProtocol.win:
+                print_received(win_command);
+                return ProtocolParser.win;
+            case BinaryProtocol.error:
+                print_received(error_command);
+                return ProtocolParser.error;
+        }
+        Metrics.parse_failures.increment();
+        print("Opponent sent an unexpected frame.");
+        return ProtocolParser.invalid;
+    }
+
+
+    public void send_insert(int column_index) throws IOException {
+        move_sent_time = System.nanoTime();
+        last_sent_column = column_index;
+        if (binary_protocol) {
+            send_frame(BinaryProtocol.insert, column_index);
+            print_sent(insert_command + ":" + column_index);
+        }
+        else {
+            send_message(insert_command + ":" + column_index);
+        }
+    }
+
+
+    public void send_win() throws IOException {
+        if (binary_protocol) {
+            send_frame(BinaryProtocol.win, 0);
+            print_sent(win_command);
+        }
+        else {
+            send_message(win_command);
+        }
+    }
+
+
+    public void send_error() throws IOException {
+        if (binary_protocol) {
+            send_frame(BinaryProtocol.error, 0);
+            print_sent(error_command);
+        }
+        else {
+            send_message(error_command);
         }
     }
 
 
+    public void send_frame(int type, int payload) throws IOException {
+        BinaryProtocol.write_frame(game_socket_stream_out, frame_buffer, type, sent_frames++, payload);
+    }
+
+
+    // Queues message; it is sent by the next flush_messages()
     public void send_message(String message) {
-        // Send message
-        game_socket_out.println(message);
-        System.out.println("Sent to opponent: " + message);
+        game_socket_out.print(message);
+        game_socket_out.print('\n');
+        print_sent(message);
+    }
+
+
+    // Sends everything queued since the last flush in one write
+    public void flush_messages() throws IOException {
+        if (binary_protocol) {
+            game_socket_stream_out.flush();
+        }
+        else {
+            game_socket_out.flush();
+        }
+    }
+
+
+    // Protocol messages are echoed through Log (and so ConsoleSink) so a slow terminal never holds up the game.
+    // Checked before building the echoed text, so nothing is concatenated when echoes are off
+    public boolean echo_messages() {
+        return !headless && Log.is_enabled(Log.info);
+    }
+
+
+    // Shows what was sent as its text command, whichever protocol carried it
+    public void print_sent(String message) {
+        if (echo_messages()) {
+            Log.info("Sent to opponent: " + message);
+        }
+    }
+
+
+    public void print_received(String message) {
+        if (echo_messages()) {
+            Log.info("Received: " + message);
+        }
+    }
+
+
+    // Stops the turn loop, sends anything still queued and closes the connection
+    public void end_game() throws IOException {
+        game_over = true;
+        // Spectators see the game end even if it had no result
+        if (connect_four.spectator_feed != null) {
+            connect_four.spectator_feed.finish();
+        }
+        try {
+            flush_messages();
+        }
+        finally {
+            game_socket.close();
+            stop_resume_listener();
+        }
+    }
+
+
+    // Terminal output, skipped for headless sessions
+    public void print(String message) {
+        if (!headless) {
+            System.out.println(message);
+        }
     }
 }
@@ -0,0 +1,203 @@
+import java.io.IOException;
+import java.net.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+
+// Hosts many games in one process. Every accepted connection becomes its own session played by the AI, speaking the
+// same INSERT/YOU WIN/ERROR protocol as a Client, so existing clients can play against it unchanged.
+// Sessions end by closing their own socket instead of exiting, and each runs on its own (virtual, on JDK 21+) thread.
+// The server can also advertise itself on the LAN with the usual NEW GAME:<port> broadcast, so Clients find it through
+// normal matchmaking; each one that connects gets a new session.
+// With a spectator port, every session's moves are also published to a SpectatorServer on that port.
+// With a game log directory, every session's moves are also appended to a GameLog there.
+// ie: java GameServer 9000 192.168.0.255 8000
+//     java GameServer 9000 none 8000 9100    (no broadcasts, spectators on port 9100)
+//     java GameServer 9000 none 8000 none game_logs    (no broadcasts or spectators, games recorded in game_logs)
+public class GameServer {
+    final int tcp_port;
+    // null to skip LAN broadcasts
+    final InetAddress broadcast_address;
+    final int broadcast_port;
+
+    // Like the Player 1 (sender) side of MatchMaker, the server accepted the connection so it goes first
+    final int server_player = 1;
+    final long ai_milliseconds_per_move = 45;
+    // One transposition table (16 bytes per slot, 16 MB) for every session, so memory does not grow with the number
+    // of sessions. It is lock-free and keyed by the exact position, so sessions can only evict each other's entries,
+    // never read a wrong one, and positions common to many games are searched once
+    final int shared_table_bits = 20;
+    final TranspositionTable shared_table = new TranspositionTable(shared_table_bits);
+    final int milliseconds_between_broadcasts = 2000;
+    final String new_game_message = "NEW GAME";
+    // How often Metrics are printed (they are also available over JMX)
+    static final int metrics_dump_seconds = 60;
+    // A failing broadcast fails every time, so it is only logged once a minute
+    static final Log.Limiter broadcast_error_limiter = new Log.Limiter(1, 30);
+
+    // Shared read-only by every session, null if there is no book
+    final OpeningBook opening_book = OpeningBook.open_if_exists(Client.opening_book_file_path);
+
+    final ExecutorService session_executor = VirtualThreads.new_executor();
+    final ScheduledExecutorService broadcast_executor = Executors.newSingleThreadScheduledExecutor();
+
+    // Session counters
+    final AtomicInteger active_sessions = new AtomicInteger();
+    final AtomicLong completed_sessions = new AtomicLong();
+    final AtomicLong failed_sessions = new AtomicLong();
+
+    // null if sessions are not published to spectators
+    SpectatorServer spectator_server;
+    // null if sessions are not recorded
+    GameLog game_log;
+
+    ServerSocket server_socket;
+
+
+    GameServer(int tcp_port, InetAddress broadcast_address, int broadcast_port) {
+        this.tcp_port = tcp_port;
+        this.broadcast_address = broadcast_address;
+        this.broadcast_port = broadcast_port;
+    }
+
+
+    GameServer(int tcp_port, InetAddress broadcast_address, int broadcast_port, SpectatorServer spectator_server) {
+        this(tcp_port, broadcast_address, broadcast_port);
+        this.spectator_server = spectator_server;
+    }
+
+
+    GameServer(int tcp_port, InetAddress broadcast_address, int broadcast_port, SpectatorServer spectator_server,
+        GameLog game_log) {
+        this(tcp_port, broadcast_address, broadcast_port, spectator_server);
+        this.game_log = game_log;
+    }
+
+
+    public static void main(String[] args) throws IOException {
+        int tcp_port = args.length > 0 ? Integer.parseInt(args[0]) : 9000;
+        InetAddress broadcast_address = args.length > 1 && !args[1].equals("none") ?
+            InetAddress.getByName(args[1]) : null;
+        int broadcast_port = args.length > 2 ? Integer.parseInt(args[2]) : 8000;
+
+        SpectatorServer spectator_server = null;
+        if (args.length > 3 && !args[3].equals("none")) {
+            spectator_server = new SpectatorServer(Integer.parseInt(args[3]));
+            start_spectator_server(spectator_server);
+        }
+        GameLog game_log = args.length > 4 ? new GameLog(args[4]) : null;
+        Metrics.start(metrics_dump_seconds);
+        new GameServer(tcp_port, broadcast_address, broadcast_port, spectator_server, game_log).start();
+        // Sessions were stopped with the server, so everything they appended can be written out
+        if (game_log != null) {
+            game_log.close();
+        }
+    }
+
+
+    public static void start_spectator_server(SpectatorServer spectator_server) {
+        Thread spectator_thread = new Thread(() -> {
+            try {
+                spectator_server.start();
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "SpectatorServer");
+        spectator_thread.setDaemon(true);
+        spectator_thread.start();
+    }
+
+
+    // Accepts connections until stopped, starting a session for each
+    public void start() throws IOException {
+        server_socket = new ServerSocket(tcp_port);
+        System.out.println("GameServer: Listening on port: " + tcp_port +
+            (VirtualThreads.available ? " (virtual threads)" : " (platform threads)"));
+
+        if (broadcast_address != null) {
+            broadcast_executor.scheduleAtFixedRate(this::send_broadcast, 0, milliseconds_between_broadcasts,
+                TimeUnit.MILLISECONDS);
+        }
+
+        try {
+            while (true) {
+                Socket socket = server_socket.accept();
+                session_executor.submit(() -> run_session(socket));
+            }
+        }
+        catch (SocketException e) {
+            System.out.println("GameServer has been stopped.");
+        }
+        finally {
+            broadcast_executor.shutdownNow();
+            session_executor.shutdownNow();
+        }
+    }
+
+
+    // Plays one game over socket. Any failure only ends this session
+    public void run_session(Socket socket) {
+        active_sessions.incrementAndGet();
+        SpectatorFeed feed = null;
+        try {
+            socket.setTcpNoDelay(true);
+            AIPlayer ai_player = new AIPlayer(ai_milliseconds_per_move, shared_table);
+            ai_player.opening_book = opening_book;
+
+            GameMaster session = new GameMaster(socket, server_player, ai_player);
+            if (spectator_server != null) {
+                feed = new SpectatorFeed(GameLog.new_game_id(), session.connect_four.columns,
+                    session.connect_four.rows, session.connect_four.positions_to_win);
+                session.connect_four.spectator_feed = feed;
+                spectator_server.add_feed(feed);
+            }
+            if (game_log != null) {
+                session.connect_four.start_recording(game_log);
+            }
+            session.start();
+            completed_sessions.incrementAndGet();
+        }
+        catch (IOException e) {
+            failed_sessions.incrementAndGet();
+        }
+        finally {
+            if (feed != null) {
+                feed.finish();
+                spectator_server.remove_feed(feed);
+            }
+            active_sessions.decrementAndGet();
+            try {
+                socket.close();
+            }
+            catch (IOException e) {}
+        }
+    }
+
+
+    // Same payload as MatchMaker.send_broadcast, pointing at the server's port
+    public void send_broadcast() {
+        try (DatagramSocket send_socket = new DatagramSocket()) {
+            byte[] send_data = (new_game_message + ":" + tcp_port).getBytes();
+            send_socket.send(new DatagramPacket(send_data, send_data.length, broadcast_address, broadcast_port));
+        }
+        catch (IOException e) {
+            Log.log(Log.error, broadcast_error_limiter, () -> "GameServer: could not send broadcast (" + e + ")");
+        }
+    }
+
+
+    // Session counters, eg: for monitoring
+    public String get_status() {
+        return "GameServer: " + active_sessions.get() + " active, " + completed_sessions.get() + " completed, " +
+            failed_sessions.get() + " failed sessions";
+    }
+
+
+    // To unblock accept() and end all sessions
+    public void stop() throws IOException {
+        if (server_socket != null && !server_socket.isClosed()) {
+            server_socket.close();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+// Lock-free histogram of non-negative values (eg: latencies in nanoseconds), in the style of HdrHistogram.
+// Buckets are log-linear: values below 2 * sub_buckets get a bucket each, and every power of two above that is split
+// into sub_buckets equal buckets, so any value is stored within 1 / sub_buckets (about 3%) of its true value.
+// record() is one atomic increment on a fixed array and never allocates; reading takes a snapshot of the counts.
+public class Histogram {
+    static final int sub_bucket_bits = 5;
+    static final int sub_buckets = 1 << sub_bucket_bits;
+    // Enough buckets for any positive long
+    static final int bucket_count = (63 - sub_bucket_bits + 1) * sub_buckets;
+
+    final String name;
+    final AtomicLongArray counts = new AtomicLongArray(bucket_count);
+    final AtomicLong max = new AtomicLong();
+
+
+    Histogram(String name) {
+        this.name = name;
+    }
+
+
+    // Negative values (eg: from a clock step) are recorded as 0
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.getAndIncrement(get_bucket(value));
+        // Only contended when a new maximum is seen
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+
+    public static int get_bucket(long value) {
+        if (value < 2 * sub_buckets) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value) - sub_bucket_bits;
+        return (exponent << sub_bucket_bits) + (int) (value >>> exponent);
+    }
+
+
+    // Largest value that falls in bucket
+    public static long get_bucket_value(int bucket) {
+        if (bucket < 2 * sub_buckets) {
+            return bucket;
+        }
+        int exponent = (bucket >>> sub_bucket_bits) - 1;
+        long sub_bucket = bucket - ((long) exponent << sub_bucket_bits);
+        return ((sub_bucket + 1) << exponent) - 1;
+    }
+
+
+    // Copy of the bucket counts, for reading several percentiles from the same data
+    public long[] get_snapshot() {
+        long[] snapshot = new long[bucket_count];
+        for (int i = 0; i < bucket_count; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return snapshot;
+    }
+
+
+    public static long get_count(long[] snapshot) {
+        long count = 0;
+        for (long bucket_count : snapshot) {
+            count += bucket_count;
+        }
+        return count;
+    }
+
+
+    // Value at or below which percentile (0 to 100) of the recorded values fall; 0 if nothing was recorded
+    public static long get_percentile(long[] snapshot, double percentile) {
+        long count = get_count(snapshot);
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= target) {
+                return get_bucket_value(i);
+            }
+        }
+        return get_bucket_value(snapshot.length - 1);
+    }
+
+
+    public long get_count() {
+        return get_count(get_snapshot());
+    }
+
+
+    public long get_percentile(double percentile) {
+        return get_percentile(get_snapshot(), percentile);
+    }
+
+
+    public long get_max() {
+        return max.get();
+    }
+
+
+    // Values recorded while resetting may be kept or lost
+    public void reset() {
+        for (int i = 0; i < bucket_count; i++) {
+            counts.set(i, 0);
+        }
+        max.set(0);
+    }
+}
@@ -0,0 +1,181 @@
+// Game core for boards too big for BitBoard's single long, eg: 19x19 connect 5.
+// Each player's stones are a long[] bitset indexed by column * rows + row. A new line can only pass through the last
+// stone dropped, so has_won walks out from it at most positions_to_win - 1 cells each way in the four directions:
+// O(positions_to_win) per check whatever the board size.
+public class LargeBitBoard implements Board {
+    final int columns;
+    final int rows;
+    final int positions_to_win;
+
+    // Horizontal, vertical, diagonal (negative gradient), diagonal (positive gradient)
+    static final int[] direction_row_steps = {0, 1, -1, 1};
+    static final int[] direction_column_steps = {1, 0, 1, 1};
+
+    // 1 -> Player 1 stones
+    // 2 -> Player 2 stones
+    final long[] player_1_stones;
+    final long[] player_2_stones;
+
+    // Number of occupied cells in each column, so a drop never has to search the column
+    final int[] column_heights;
+    // Base-0 column of every move played, in order, so moves can be undone
+    final short[] move_history;
+    int move_count = 0;
+    // Zobrist hash of the stones on the board
+    long hash = 0L;
+
+
+    LargeBitBoard(int columns, int rows, int positions_to_win) {
+        this.columns = columns;
+        this.rows = rows;
+        this.positions_to_win = positions_to_win;
+
+        int words = (columns * rows + Long.SIZE - 1) / Long.SIZE;
+        this.player_1_stones = new long[words];
+        this.player_2_stones = new long[words];
+        this.column_heights = new int[columns];
+        this.move_history = new short[columns * rows];
+    }
+
+
+    // Copy of another board, for searches that must not disturb the game being played
+    LargeBitBoard(LargeBitBoard other) {
+        this(other.columns, other.rows, other.positions_to_win);
+        System.arraycopy(other.player_1_stones, 0, this.player_1_stones, 0, player_1_stones.length);
+        System.arraycopy(other.player_2_stones, 0, this.player_2_stones, 0, player_2_stones.length);
+        System.arraycopy(other.column_heights, 0, this.column_heights, 0, columns);
+        System.arraycopy(other.move_history, 0, this.move_history, 0, other.move_count);
+        this.move_count = other.move_count;
+        this.hash = other.hash;
+    }
+
+
+    public int get_columns() {
+        return columns;
+    }
+
+    public int get_rows() {
+        return rows;
+    }
+
+    public int get_positions_to_win() {
+        return positions_to_win;
+    }
+
+    public int get_move_count() {
+        return move_count;
+    }
+
+    // Base-0 column of the last move, -1 if the board is empty
+    public int get_last_column() {
+        return move_count == 0 ? -1 : move_history[move_count - 1];
+    }
+
+
+    public boolean can_insert(int column) {
+        return column >= 0 && column < columns && column_heights[column] < rows;
+    }
+
+
+    public int insert(int column, int target_player) {
+        if (!can_insert(column)) {
+            return -1;
+        }
+        int row = column_heights[column]++;
+        int bit = column * rows + row;
+
+        long[] stones = target_player == 1 ? player_1_stones : player_2_stones;
+        stones[bit >>> 6] |= 1L << bit;
+        hash ^= Zobrist.get_key(bit, target_player);
+        move_history[move_count++] = (short) column;
+        return row * columns + column;
+    }
+
+
+    public int undo_move() {
+        if (move_count == 0) {
+            return -1;
+        }
+        int column = move_history[--move_count];
+        int row = --column_heights[column];
+        int bit = column * rows + row;
+
+        hash ^= Zobrist.get_key(bit, is_set(player_1_stones, row, column) ? 1 : 2);
+        // Only the player who made the move has a stone there, so clearing both is safe
+        player_1_stones[bit >>> 6] &= ~(1L << bit);
+        player_2_stones[bit >>> 6] &= ~(1L << bit);
+        return column;
+    }
+
+
+    // Checks the lines through the last stone dropped, which must be target_player's
+    public boolean has_won(int target_player) {
+        if (move_count == 0) {
+            return false;
+        }
+        int column = move_history[move_count - 1];
+        int row = column_heights[column] - 1;
+        long[] stones = target_player == 1 ? player_1_stones : player_2_stones;
+        if (!is_set(stones, row, column)) {
+            return false;
+        }
+
+        for (int direction = 0; direction < direction_row_steps.length; direction++) {
+            int row_step = direction_row_steps[direction];
+            int column_step = direction_column_steps[direction];
+            int line_length = 1 + count_stones(stones, row, column, row_step, column_step) +
+                count_stones(stones, row, column, -row_step, -column_step);
+            if (line_length >= positions_to_win) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    // Consecutive stones from (row, column), exclusive, in one direction. Stops after positions_to_win - 1
+    public int count_stones(long[] stones, int row, int column, int row_step, int column_step) {
+        int count = 0;
+        while (count < positions_to_win - 1) {
+            row += row_step;
+            column += column_step;
+            if (row < 0 || row >= rows || column < 0 || column >= columns || !is_set(stones, row, column)) {
+                break;
+            }
+            count++;
+        }
+        return count;
+    }
+
+
+    public boolean is_set(long[] stones, int row, int column) {
+        int bit = column * rows + row;
+        return (stones[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+
+    public boolean is_tie() {
+        return move_count == rows * columns;
+    }
+
+
+    public int get_height(int column) {
+        return column_heights[column];
+    }
+
+
+    public long get_hash() {
+        return hash;
+    }
+
+
+    public int get_state(int row, int column) {
+        if (is_set(player_1_stones, row, column)) {
+            return 1;
+        }
+        else if (is_set(player_2_stones, row, column)) {
+            return 2;
+        }
+        return -1;
+    }
+}
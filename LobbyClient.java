@@ -0,0 +1,74 @@
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.Callable;
+
+
+// Finds an opponent through a LobbyServer instead of LAN broadcasts.
+// Opens a server socket for the opponent (in case this client becomes Player 1), registers its port with the lobby,
+// answers the lobby's PINGs while it waits, then either waits for the opponent to connect (MATCH:1) or connects to
+// them (MATCH:2:<address>:<port>).
+// Returns the established TCP socket; throws IOException if the lobby cannot be used so the caller can fall back.
+public class LobbyClient implements Callable<Socket> {
+    final InetSocketAddress lobby_address;
+    final int rating;
+
+    final String register_command = "REGISTER";
+    final String match_command = "MATCH";
+    final String ping_command = "PING";
+    final String pong_command = "PONG";
+    final int lobby_connect_timeout = 2000;
+    // How long Player 1 waits for the paired opponent to connect
+    final int opponent_connect_timeout = 10000;
+
+    // 1 -> Player 1: Goes first
+    // 2 -> Player 2: Takes the L
+    int client_player;
+
+
+    LobbyClient(InetSocketAddress lobby_address, int rating) {
+        this.lobby_address = lobby_address;
+        this.rating = rating;
+    }
+
+
+    @Override
+    public Socket call() throws IOException {
+        // Bound before registering, so the opponent can connect as soon as the lobby pairs us
+        try (ServerSocket server_socket = new ServerSocket(0); Socket lobby_socket = new Socket()) {
+            lobby_socket.connect(lobby_address, lobby_connect_timeout);
+            PrintWriter lobby_out = new PrintWriter(lobby_socket.getOutputStream(), true);
+            BufferedReader lobby_in = new BufferedReader(new InputStreamReader(lobby_socket.getInputStream()));
+
+            lobby_out.println(register_command + ":" + rating + ":" + server_socket.getLocalPort());
+            System.out.println("LobbyClient: Registered with lobby " + lobby_address.getHostString() + ":" +
+                lobby_address.getPort() + " (rating " + rating + "). Waiting for opponent...");
+            // The lobby checks we are still here while we wait, and again just before pairing us
+            String input;
+            while ((input = lobby_in.readLine()) != null && input.equals(ping_command)) {
+                lobby_out.println(pong_command);
+            }
+
+            String[] arguments = input == null ? new String[0] : input.split(":");
+            if (arguments.length < 2 || !match_command.equals(arguments[0]) ||
+                (arguments[1].equals("2") && arguments.length < 4)) {
+                throw new IOException("Lobby sent invalid reply; expected " + match_command + ". Received: " + input);
+            }
+
+            // Player 1 Scenario - opponent connects to us
+            if (arguments[1].equals("1")) {
+                client_player = 1;
+                server_socket.setSoTimeout(opponent_connect_timeout);
+                return server_socket.accept();
+            }
+
+            // Player 2 Scenario - connect to the opponent
+            client_player = 2;
+            try {
+                return new Socket(arguments[2], Integer.parseInt(arguments[3]));
+            }
+            catch (NumberFormatException e) {
+                throw new IOException("Lobby sent invalid port. Received: " + input);
+            }
+        }
+    }
+}
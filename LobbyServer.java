@@ -0,0 +1,290 @@
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+
+// Central matchmaking service. Clients register over TCP with a rating and the port their TCPListener is on, and
+// are paired with another waiting client in the same rating bucket. Each bucket holds at most one waiting client
+// in an atomic slot: an arriving client either takes the waiting one (a match) or parks itself, using only
+// compare-and-set, so pairing never takes a lock.
+// A waiting client is pinged every heartbeat_interval and evicted if it does not answer. Matches are never delayed by
+// a check: a client that left is paired at most until its next heartbeat would have caught it.
+//
+// Protocol (one line each):
+//   client -> lobby: REGISTER:<rating>:<tcp_port>
+//   lobby -> client: PING                    (client answers PONG; any number, while waiting)
+//                    MATCH:1                 (Player 1: wait for the opponent on tcp_port)
+//                    MATCH:2:<address>:<port> (Player 2: connect to the opponent)
+//                    ERROR
+// After MATCH the lobby closes the connection and the clients play directly, exactly as after LAN matchmaking.
+//
+// ie: java LobbyServer 7000
+//     java LobbyServer 7000 simulate 10000    (pairs simulated clients on localhost and reports pairs per second)
+public class LobbyServer {
+    final int lobby_port;
+    final int rating_bucket_width = 100;
+    final int maximum_rating = 3000;
+
+    final String register_command = "REGISTER";
+    final String match_command = "MATCH";
+    final String error_command = "ERROR";
+    final String ping_command = "PING";
+    final String pong_command = "PONG";
+
+    // How often a waiting client is checked on, and how long it has to answer
+    final int heartbeat_interval = 5000;
+    final int pong_timeout = 2000;
+
+    // One waiting client (or null) per rating bucket
+    final AtomicReferenceArray<WaitingClient> waiting_clients;
+    final ExecutorService client_executor = VirtualThreads.new_executor();
+    final AtomicLong matches = new AtomicLong();
+
+    ServerSocket server_socket;
+
+
+    // A registered client waiting for an opponent. Its connection is only used by whoever took it out of its bucket
+    // (a match, or its own heartbeat), so a heartbeat and a match never talk to it at the same time
+    static class WaitingClient {
+        final Socket socket;
+        final BufferedReader socket_in;
+        final PrintWriter socket_out;
+        final int tcp_port;
+
+        WaitingClient(Socket socket, BufferedReader socket_in, PrintWriter socket_out, int tcp_port) {
+            this.socket = socket;
+            this.socket_in = socket_in;
+            this.socket_out = socket_out;
+            this.tcp_port = tcp_port;
+        }
+    }
+
+
+    LobbyServer(int lobby_port) {
+        this.lobby_port = lobby_port;
+        this.waiting_clients = new AtomicReferenceArray<WaitingClient>(maximum_rating / rating_bucket_width + 1);
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        int lobby_port = args.length > 0 ? Integer.parseInt(args[0]) : 7000;
+        LobbyServer lobby_server = new LobbyServer(lobby_port);
+
+        if (args.length > 2 && args[1].equals("simulate")) {
+            Executors.newSingleThreadExecutor().submit(() -> {
+                lobby_server.start();
+                return null;
+            });
+            Thread.sleep(500);
+            simulate_clients(InetAddress.getLoopbackAddress(), lobby_port, Integer.parseInt(args[2]));
+            lobby_server.stop();
+            System.exit(0);
+        }
+        lobby_server.start();
+    }
+
+
+    // Accepts registrations until stopped
+    public void start() throws IOException {
+        server_socket = new ServerSocket(lobby_port, 1024);
+        System.out.println("LobbyServer: Listening on port: " + lobby_port);
+        try {
+            while (true) {
+                Socket socket = server_socket.accept();
+                client_executor.submit(() -> register(socket));
+            }
+        }
+        catch (SocketException e) {
+            System.out.println("LobbyServer has been stopped.");
+        }
+        finally {
+            client_executor.shutdownNow();
+        }
+    }
+
+
+    // Reads the REGISTER line and pairs the client, then checks on it until it is paired if it had to wait
+    public void register(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            BufferedReader socket_in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            PrintWriter socket_out = new PrintWriter(socket.getOutputStream(), true);
+            String input = socket_in.readLine();
+
+            int rating;
+            int tcp_port;
+            try {
+                String[] arguments = input.split(":");
+                if (!register_command.equals(arguments[0])) {
+                    throw new IllegalArgumentException();
+                }
+                rating = Integer.parseInt(arguments[1]);
+                tcp_port = Integer.parseInt(arguments[2]);
+            }
+            // Not valid format
+            catch (Exception e) {
+                socket_out.println(error_command);
+                socket.close();
+                return;
+            }
+            WaitingClient client = new WaitingClient(socket, socket_in, socket_out, tcp_port);
+            int bucket = get_bucket(rating);
+            if (pair(client, bucket)) {
+                keep_alive(client, bucket);
+            }
+        }
+        catch (IOException e) {
+            close(socket);
+        }
+    }
+
+
+    // Lock-free pairing: take the bucket's waiting client, or become it.
+    // Returns true if client was left waiting in the bucket, false if it was matched
+    public boolean pair(WaitingClient client, int bucket) {
+        while (true) {
+            WaitingClient waiting_client = waiting_clients.get(bucket);
+
+            if (waiting_client == null) {
+                if (waiting_clients.compareAndSet(bucket, null, client)) {
+                    return true;
+                }
+            }
+            else if (waiting_clients.compareAndSet(bucket, waiting_client, null)) {
+                start_match(waiting_client, client);
+                return false;
+            }
+        }
+    }
+
+
+    // Tells player_1 to wait and player_2 where to connect. Neither is in a bucket any more, so nothing else is
+    // using their connections
+    public void start_match(WaitingClient player_1, WaitingClient player_2) {
+        player_1.socket_out.println(match_command + ":1");
+        player_2.socket_out.println(match_command + ":2:" + player_1.socket.getInetAddress().getHostAddress() +
+            ":" + player_1.tcp_port);
+        matches.incrementAndGet();
+
+        close(player_1.socket);
+        close(player_2.socket);
+    }
+
+
+    // Pings a waiting client every heartbeat_interval until it is paired, evicting it if it stops answering.
+    // The client is taken out of its bucket for each check and put back through pair(), so it is never matched
+    // while the heartbeat is using its connection, and a client that arrived meanwhile is matched with it then
+    public void keep_alive(WaitingClient client, int bucket) {
+        try {
+            while (true) {
+                Thread.sleep(heartbeat_interval);
+                // Not in the bucket any more: it has been matched
+                if (!waiting_clients.compareAndSet(bucket, client, null)) {
+                    return;
+                }
+                if (!is_alive(client)) {
+                    close(client.socket);
+                    return;
+                }
+                if (!pair(client, bucket)) {
+                    return;
+                }
+            }
+        }
+        // The lobby is stopping
+        catch (InterruptedException e) {
+            close(client.socket);
+        }
+    }
+
+
+    // Sends PING and waits for PONG. Call only for a client taken out of its bucket
+    public boolean is_alive(WaitingClient client) {
+        client.socket_out.println(ping_command);
+        return await_pong(client);
+    }
+
+
+    // Waits up to pong_timeout for the answer to a PING
+    public boolean await_pong(WaitingClient client) {
+        try {
+            client.socket.setSoTimeout(pong_timeout);
+            return pong_command.equals(client.socket_in.readLine());
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+
+    public int get_bucket(int rating) {
+        return Math.max(0, Math.min(rating, maximum_rating)) / rating_bucket_width;
+    }
+
+
+    public void close(Socket socket) {
+        try {
+            socket.close();
+        }
+        catch (IOException e) {}
+    }
+
+
+    // To unblock accept()
+    public void stop() throws IOException {
+        if (server_socket != null && !server_socket.isClosed()) {
+            server_socket.close();
+        }
+    }
+
+
+    // Registers client_count clients with random ratings and waits until every pair has been told to play
+    public static void simulate_clients(InetAddress lobby_address, int lobby_port, int client_count) throws Exception {
+        ExecutorService executor = VirtualThreads.new_executor();
+        List<Future<String>> replies = new ArrayList<Future<String>>();
+        Random random = new Random();
+        long start_time = System.nanoTime();
+
+        // Ratings come in pairs so every simulated client finds an opponent
+        int pair_rating = 0;
+        for (int i = 0; i < client_count; i++) {
+            if (i % 2 == 0) {
+                pair_rating = random.nextInt(3000);
+            }
+            int rating = pair_rating;
+            int tcp_port = 10000 + i;
+            replies.add(executor.submit(() -> {
+                try (Socket socket = new Socket(lobby_address, lobby_port)) {
+                    PrintWriter socket_out = new PrintWriter(socket.getOutputStream(), true);
+                    BufferedReader socket_in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                    socket_out.println("REGISTER:" + rating + ":" + tcp_port);
+                    String message;
+                    while ((message = socket_in.readLine()) != null && message.equals("PING")) {
+                        socket_out.println("PONG");
+                    }
+                    return message;
+                }
+            }));
+        }
+
+        int player_1_count = 0;
+        int player_2_count = 0;
+        for (Future<String> reply : replies) {
+            String message = reply.get(60, TimeUnit.SECONDS);
+            if (message != null && message.startsWith("MATCH:1")) {
+                player_1_count++;
+            }
+            else if (message != null && message.startsWith("MATCH:2")) {
+                player_2_count++;
+            }
+        }
+        double seconds = (System.nanoTime() - start_time) / 1_000_000_000.0;
+        executor.shutdownNow();
+
+        System.out.println("LobbyServer simulation: " + client_count + " clients, " + player_1_count + " Player 1, " +
+            player_2_count + " Player 2 in " + String.format("%.2f", seconds) + " s (" +
+            String.format("%,.0f", Math.min(player_1_count, player_2_count) / seconds) + " pairs/s)");
+    }
+}
@@ -0,0 +1,126 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+
+// Levelled logging for the network paths, written through ConsoleSink's bounded queue so callers never wait on the
+// terminal. Messages passed as a Supplier are only built if their level is enabled (and their Limiter lets them
+// through), so a disabled or suppressed message costs a volatile read and no string building.
+// Info messages are printed as they are (they are the console's normal output); other levels are tagged, eg:
+//   [WARN] UDPListener: Received unknown request: ...
+// Set level to warn (or off) to keep a production process quiet.
+public class Log {
+    static final int debug = 0;
+    static final int info = 1;
+    static final int warn = 2;
+    static final int error = 3;
+    static final int off = 4;
+    static final String[] level_names = {"DEBUG", "INFO", "WARN", "ERROR"};
+
+    static volatile int level = info;
+
+
+    // Lets through at most messages_per_second messages, and of those only one in every sample_every.
+    // Suppressed messages are counted and the count is added to the next one let through.
+    // One Limiter per kind of message, eg: stray broadcasts, so noise cannot crowd out everything else
+    static class Limiter {
+        final int messages_per_second;
+        final int sample_every;
+
+        final AtomicLong window_start = new AtomicLong(System.nanoTime());
+        final AtomicInteger window_count = new AtomicInteger();
+        final AtomicLong seen_messages = new AtomicLong();
+        final LongAdder suppressed_messages = new LongAdder();
+
+
+        Limiter(int messages_per_second) {
+            this(messages_per_second, 1);
+        }
+
+
+        Limiter(int messages_per_second, int sample_every) {
+            this.messages_per_second = messages_per_second;
+            this.sample_every = sample_every;
+        }
+
+
+        public boolean try_acquire() {
+            if (sample_every > 1 && seen_messages.getAndIncrement() % sample_every != 0) {
+                suppressed_messages.increment();
+                return false;
+            }
+            long now = System.nanoTime();
+            long start = window_start.get();
+            // One caller starts the new window; a message or two may slip into either window at the boundary
+            if (now - start >= 1_000_000_000L && window_start.compareAndSet(start, now)) {
+                window_count.set(0);
+            }
+            if (window_count.incrementAndGet() > messages_per_second) {
+                suppressed_messages.increment();
+                return false;
+            }
+            return true;
+        }
+    }
+
+
+    public static boolean is_enabled(int message_level) {
+        return message_level >= level && ConsoleSink.enabled;
+    }
+
+
+    public static void log(int message_level, String message) {
+        if (is_enabled(message_level)) {
+            ConsoleSink.log(format(message_level, message));
+        }
+    }
+
+
+    public static void log(int message_level, Supplier<String> message) {
+        if (is_enabled(message_level)) {
+            ConsoleSink.log(format(message_level, message.get()));
+        }
+    }
+
+
+    // Logs message if limiter has budget for it
+    public static void log(int message_level, Limiter limiter, Supplier<String> message) {
+        if (!is_enabled(message_level) || !limiter.try_acquire()) {
+            return;
+        }
+        long suppressed = limiter.suppressed_messages.sumThenReset();
+        ConsoleSink.log(format(message_level, message.get()) +
+            (suppressed > 0 ? " (" + suppressed + " similar messages suppressed)" : ""));
+    }
+
+
+    public static void debug(Supplier<String> message) {
+        log(debug, message);
+    }
+
+
+    public static void info(String message) {
+        log(info, message);
+    }
+
+
+    public static void info(Supplier<String> message) {
+        log(info, message);
+    }
+
+
+    public static void warn(String message) {
+        log(warn, message);
+    }
+
+
+    public static void error(String message) {
+        log(error, message);
+    }
+
+
+    public static String format(int message_level, String message) {
+        return message_level == info ? message : "[" + level_names[message_level] + "] " + message;
+    }
+}
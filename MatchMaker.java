@@ -2,6 +2,7 @@ import java.io.IOException;
 import java.net.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 // Handles the matchmaking by delegating listening tasks to other threads and waiting for the results.
@@ -16,25 +17,82 @@ public class MatchMaker implements Callable<Socket>{
      */
     final InetAddress broadcast_address;
     final int broadcast_port;
+    // Central lobby to try before LAN broadcasts, null to only use the LAN
+    final InetSocketAddress lobby_address;
+    final int rating;
     final int tcp_port = new Random().nextInt(100) + 9000;
 
     final int milliseconds_between_broadcasts = 10000;
+    // How long Player 2 waits to connect to the opponent whose broadcast it received
+    final int opponent_connect_timeout = 5000;
     final String new_game_message = "NEW GAME";
 
-    // Create executor to create and manage threads
-    final ExecutorService executor = Executors.newCachedThreadPool();
+    // Times every MatchMaker's broadcasts on one shared thread, so pending matches only cost their listeners
+    static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "MatchMaker broadcasts");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Runs the listeners of the current LAN match on their own (virtual, on JDK 21+) threads, see find_lan_match()
+    TaskScope listener_scope;
     final UDPListener udp_listener;
     final TCPListener tcp_listener;
 
+    // Binary protocol version offered in broadcasts (0 to only use text), and the one the opponent offered
+    final int offered_protocol_version = BinaryProtocol.version;
+    int opponent_protocol_version = 0;
+    // True if the opponent was found through LAN broadcasts (and so may have seen the offered version)
+    boolean lan_match = false;
+    // Identifies this game when Player 2 reconnects after a dropped connection (see GameMaster.resume_session()).
+    // Player 1 announces its own in broadcasts (S<hex>); Player 2 takes the announced one, or 0 if there is none.
+    // Broadcasts are visible to the whole LAN, so it only keeps games apart, it does not authenticate anyone
+    long session_token = new Random().nextLong() & Long.MAX_VALUE;
+
+    // Board to play. Player 1 announces its own in broadcasts (B<columns>x<rows>x<positions to win>); Player 2 takes the
+    // announced one, or the classic board if the broadcast has none (an older client), and acknowledges it (see
+    // GameMaster.confirm_board_size())
+    int columns = Board.default_columns;
+    int rows = Board.default_rows;
+    int positions_to_win = Board.default_positions_to_win;
+
     // Variable to track who goes first
     // 1 -> Player 1: Goes first
     // 2 -> Player 2: Takes the L
     int client_player;
 
+    // Broadcasts sent for this match, for Metrics
+    final AtomicInteger broadcasts_sent = new AtomicInteger();
+    // Malformed NEW GAME broadcasts are logged at most once a second
+    static final Log.Limiter invalid_broadcast_limiter = new Log.Limiter(1);
+
+
+    // An opponent's NEW GAME broadcast: where to connect, and the protocol version, board and session token it announced
+    static class Broadcast {
+        final InetSocketAddress address;
+        final int protocol_version;
+        final int[] board_size;
+        final long session_token;
+
+        Broadcast(InetSocketAddress address, int protocol_version, int[] board_size, long session_token) {
+            this.address = address;
+            this.protocol_version = protocol_version;
+            this.board_size = board_size;
+            this.session_token = session_token;
+        }
+    }
+
 
     MatchMaker(InetAddress broadcast_address, int broadcast_port) throws UnknownHostException {
+        this(broadcast_address, broadcast_port, null, 0);
+    }
+
+
+    MatchMaker(InetAddress broadcast_address, int broadcast_port, InetSocketAddress lobby_address, int rating)
+        throws UnknownHostException {
         this.broadcast_address = broadcast_address;
         this.broadcast_port = broadcast_port;
+        this.lobby_address = lobby_address;
+        this.rating = rating;
 
         this.udp_listener = new UDPListener(broadcast_port, new_game_message);
         this.tcp_listener = new TCPListener(tcp_port);
@@ -43,100 +101,303 @@ public class MatchMaker implements Callable<Socket>{
 
     @Override
     public Socket call() throws Exception {
-        // Start threads
-        Future<DatagramPacket> udp_listener_task = executor.submit(udp_listener);
-        Future<Socket> tcp_listener_task = executor.submit(tcp_listener);
+        long start_time = System.nanoTime();
+        Socket socket = null;
+        if (lobby_address != null) {
+            // The lobby pairs players without telling them each other's board, so it is only used for the classic one
+            if (is_default_board_size()) {
+                socket = find_lobby_match();
+            }
+            else {
+                Log.info("The lobby only pairs players on the classic board. Using LAN matchmaking...");
+            }
+        }
+        if (socket == null) {
+            socket = find_lan_match();
+        }
+        record_match(start_time);
+        return socket;
+    }
+
+
+    // Returns a socket to an opponent paired by the lobby, null if the lobby could not be used
+    public Socket find_lobby_match() {
+        try {
+            LobbyClient lobby_client = new LobbyClient(lobby_address, rating);
+            Socket socket = lobby_client.call();
+            client_player = lobby_client.client_player;
+            return socket;
+        }
+        catch (IOException e) {
+            Log.warn("Lobby matchmaking failed (" + e.getMessage() + "). Falling back to LAN matchmaking...");
+            return null;
+        }
+    }
+
+
+    public void record_match(long start_time) {
+        Metrics.matches.increment();
+        Metrics.time_to_match.record(System.nanoTime() - start_time);
+        Metrics.broadcasts_per_match.record(broadcasts_sent.get());
+    }
+
+
+    // Matches with an opponent on the LAN through UDP broadcasts.
+    // The listeners run in a TaskScope: once the match is decided (or fails) the losing listener is stopped and the
+    // scope waits for both to finish, so no listener thread outlives the match
+    public Socket find_lan_match() throws Exception {
+        // Completed by whichever listener finds the opponent first; nothing polls in the meantime
+        CompletableFuture<Socket> match = new CompletableFuture<Socket>();
+        ScheduledFuture<?> broadcast_task = null;
+        TaskScope scope = new TaskScope();
+        synchronized (this) {
+            listener_scope = scope;
+        }
+
+        try {
+            // Start threads
+            start_udp_listener(match);
+            start_tcp_listener(match);
+
+            // Send UDP broadcasts at regular intervals
+            broadcast_task = scheduler.scheduleAtFixedRate(() -> rebroadcast(match),
+                milliseconds_between_broadcasts, milliseconds_between_broadcasts, TimeUnit.MILLISECONDS);
+
+            // Blocks until a listener completes the match
+            return match.get();
+        }
+        finally {
+            if (broadcast_task != null) {
+                broadcast_task.cancel(false);
+            }
+            // accept() ignores interrupts, so the listeners are stopped before the scope cancels and waits for them
+            stop_listeners();
+            scope.close();
+        }
+    }
+
+
+    // Unblocks both listeners. Safe to call more than once
+    public void stop_listeners() {
+        udp_listener.stop();
+        try {
+            tcp_listener.stop();
+        }
+        catch (IOException e) {}
+    }
+
+
+    // Runs the UDP listener and handles its packet when it returns
+    public void start_udp_listener(CompletableFuture<Socket> match) {
+        run_listener(udp_listener, match).thenAccept(packet -> on_udp_packet(packet, match));
+    }
+
+
+    // Runs the TCP listener and handles its socket when it returns
+    public void start_tcp_listener(CompletableFuture<Socket> match) {
+        run_listener(tcp_listener, match).thenAccept(socket -> on_tcp_socket(socket, match));
+    }
 
-        // To send UDP broadcasts at regular intervals
-        long start_time = System.currentTimeMillis();
 
-        // Active check if threads have finished
-        while(true) {
-            // Player 2 Scenario - found opponent broadcast
-            if (udp_listener_task.isDone()) {
+    // Forks listener in the match's scope; a listener that throws fails the whole match
+    public synchronized <T> CompletableFuture<T> run_listener(Callable<T> listener, CompletableFuture<Socket> match) {
+        CompletableFuture<T> listener_task = listener_scope.fork(listener);
+
+        listener_task.exceptionally(e -> {
+            match.completeExceptionally(e);
+            return null;
+        });
+        return listener_task;
+    }
+
+
+    // Player 2 Scenario - found opponent broadcast.
+    // Connects outside the lock with a timeout, so an unresponsive opponent holds up neither this match's broadcasts
+    // nor the scheduler every match shares. The broadcast's board, version and token are only taken once connected
+    public void on_udp_packet(DatagramPacket opponent_packet, CompletableFuture<Socket> match) {
+        Broadcast broadcast;
+        synchronized (this) {
+            // null if the listener was stopped (eg: to send a broadcast)
+            if (opponent_packet == null || match.isDone()) {
+                return;
+            }
+            try {
                 // Must terminate TCP listener as it binds to the client address as does the to be created Socket
                 tcp_listener.stop();
-                // Get UDP packet containing TCP port
-                Socket new_socket = get_socket_from_udp_broadcast(udp_listener_task.get());
-                // Close UDP listener (to force it to unbind from socket)
-                udp_listener.stop();
-
-                // If UDP packet didn't contain a valid format message or port number
-                if (new_socket == null) {
-                     // Start up UDP and TCP listeners again 
-                    udp_listener_task = executor.submit(udp_listener);
-                    tcp_listener_task = executor.submit(tcp_listener);
-                    continue;
-                }
-                // Set player variable
-                client_player = 2;
-                
-                return new_socket;
             }
-            // Player 1 Scenario - opponent responded to broadcast
-            else if (tcp_listener_task.isDone()) {
-                // Get TCP socket 
-                Socket socket = tcp_listener_task.get();
-                // Terminate other matchmaker threads (to force them to unbind from socket)
-                udp_listener.stop();
-                tcp_listener.stop();
+            catch (IOException e) {}
+            // Get UDP packet containing TCP port
+            broadcast = parse_udp_broadcast(opponent_packet);
+
+            // If UDP packet didn't contain a valid format message or port number
+            if (broadcast == null) {
+                // Keep listening on the same UDP channel and start up the TCP listener again
+                start_udp_listener(match);
+                start_tcp_listener(match);
+                return;
+            }
+        }
+
+        Socket new_socket = new Socket();
+        try {
+            new_socket.connect(broadcast.address, opponent_connect_timeout);
+        }
+        catch (IOException e) {
+            try {
+                new_socket.close();
+            }
+            catch (IOException close_exception) {}
+            match.completeExceptionally(e);
+            return;
+        }
 
-                // Set player variable
-                client_player = 1;
-                // Return socket
-                return socket;
+        synchronized (this) {
+            if (match.isDone()) {
+                try {
+                    new_socket.close();
+                }
+                catch (IOException e) {}
+                return;
             }
+            // Close UDP listener (to unbind from the broadcast port)
+            udp_listener.stop();
+            opponent_protocol_version = broadcast.protocol_version;
+            set_board_size(broadcast.board_size[0], broadcast.board_size[1], broadcast.board_size[2]);
+            session_token = broadcast.session_token;
+            // Set player variable
+            client_player = 2;
+            lan_match = true;
+            match.complete(new_socket);
+        }
+    }
+
 
-            // Send broadcast if (milliseconds_between_broadcasts) has passed
-            if (System.currentTimeMillis() - start_time > this.milliseconds_between_broadcasts) {
-                // Must close UDP listening thread to send UDP broadcast, otherwise this client will connect with itself
-                udp_listener.stop();
-                // Send out broadcast
-                send_broadcast();
-                // Start up UDP listener again 
-                udp_listener_task = executor.submit(udp_listener);
-                // Update time
-                start_time = System.currentTimeMillis();
+    // Player 1 Scenario - opponent responded to broadcast
+    public synchronized void on_tcp_socket(Socket socket, CompletableFuture<Socket> match) {
+        // null if the listener was stopped
+        if (socket == null) {
+            return;
+        }
+        // Too late: the match was already made (or failed), so nobody else will ever close it
+        if (match.isDone()) {
+            try {
+                socket.close();
             }
+            catch (IOException e) {}
+            return;
+        }
+        try {
+            // Terminate other matchmaker threads (to force them to unbind from socket)
+            udp_listener.stop();
+            tcp_listener.stop();
         }
+        catch (IOException e) {}
+
+        // Set player variable
+        client_player = 1;
+        lan_match = true;
+        match.complete(socket);
+    }
+
+
+    // Runs on the scheduler every milliseconds_between_broadcasts
+    public synchronized void rebroadcast(CompletableFuture<Socket> match) {
+        if (match.isDone()) {
+            return;
+        }
+        // Sent through the listening channel; the listener skips it by its nonce
+        send_broadcast();
     }
 
 
-    // Attempts to build socket from datagram. If it does not contain a format or valid int as port, returns null
-    public Socket get_socket_from_udp_broadcast(DatagramPacket opponent_packet) throws IOException {
+    // Attempts to read the opponent's address, board, protocol version and session token from datagram, without
+    // changing this MatchMaker. If it does not contain a format or valid int as port, returns null
+    public Broadcast parse_udp_broadcast(DatagramPacket opponent_packet) {
         String received_message = new String(opponent_packet.getData(), 0, opponent_packet.getLength());
         int opponent_port;
         try {
             // Get port from message
             opponent_port = Integer.parseInt(received_message.split(":")[1]);
+            if (opponent_port <= 0 || opponent_port > 65535) {
+                throw new NumberFormatException("Port out of range");
+            }
         }
         // Not valid format
         catch (Exception e) {
-            System.out.println("New game message did not contain a valid format; expected " + new_game_message +
+            Metrics.parse_failures.increment();
+            Log.log(Log.warn, invalid_broadcast_limiter, () ->
+                "New game message did not contain a valid format; expected " + new_game_message +
                 ": followed by an integer. Received: " + received_message);
             return null;
         }
-        System.out.println("\nCreating new socket connection: " + opponent_packet.getAddress().getHostAddress() +
+        // Optional fields after the port, eg: V1 for the binary protocol version, B7x6x4 for the board, S<hex> for the
+        // session token
+        int opponent_protocol_version = 0;
+        long opponent_session_token = 0;
+        int[] board_size = {Board.default_columns, Board.default_rows, Board.default_positions_to_win};
+        for (String field : received_message.trim().split(":")) {
+            if (field.matches("V[0-9]{1,3}")) {
+                opponent_protocol_version = Integer.parseInt(field.substring(1));
+            }
+            else if (field.matches("B[0-9]{1,3}x[0-9]{1,3}x[0-9]{1,3}")) {
+                String[] sizes = field.substring(1).split("x");
+                for (int i = 0; i < sizes.length; i++) {
+                    board_size[i] = Integer.parseInt(sizes[i]);
+                }
+            }
+            else if (field.matches("S[0-9a-f]{1,16}")) {
+                opponent_session_token = Long.parseUnsignedLong(field.substring(1), 16);
+            }
+        }
+        if (!Board.is_valid_size(board_size[0], board_size[1], board_size[2])) {
+            Metrics.parse_failures.increment();
+            Log.log(Log.warn, invalid_broadcast_limiter, () ->
+                "New game message did not contain a valid board size. Received: " + received_message);
+            return null;
+        }
+        Log.info("\nCreating new socket connection: " + opponent_packet.getAddress().getHostAddress() +
             "\t" + opponent_port);
 
-        // Create new socket connected to the opponent address and port, and binded to this local address and port.
-        return new Socket(opponent_packet.getAddress(), opponent_port);
+        return new Broadcast(new InetSocketAddress(opponent_packet.getAddress(), opponent_port),
+            opponent_protocol_version, board_size, opponent_session_token);
     }
 
 
     // Send UDP packet to broadcast address with TCP port as payload
     public void send_broadcast() {
-        System.out.println("\nBroadcasting new game with TCP port: " + tcp_port +
+        Log.info(() -> "\nBroadcasting new game with TCP port: " + tcp_port +
             "\nAddress: " + broadcast_address.getHostAddress() + "\tPort: " + broadcast_port);
-        
-        try (DatagramSocket send_socket = new DatagramSocket()) {
-            // Initialise and send payload to broadcast address
-            byte[] sendData = (new_game_message + ":" + tcp_port).getBytes();
-            DatagramPacket sendPacket = new DatagramPacket(sendData, sendData.length, broadcast_address, broadcast_port);
-            send_socket.send(sendPacket);
-        } 
+
+        try {
+            String message = new_game_message + ":" + tcp_port;
+            if (offered_protocol_version > 0) {
+                message += ":V" + offered_protocol_version;
+            }
+            message += ":B" + columns + "x" + rows + "x" + positions_to_win;
+            message += ":S" + Long.toHexString(session_token);
+            udp_listener.send_broadcast(broadcast_address, message);
+            broadcasts_sent.incrementAndGet();
+            Metrics.broadcasts.increment();
+        }
         catch (IOException e) {
-            e.printStackTrace();
+            Log.error("MatchMaker: could not send broadcast (" + e + ")");
+        }
+    }
+
+
+    public boolean is_default_board_size() {
+        return columns == Board.default_columns && rows == Board.default_rows &&
+            positions_to_win == Board.default_positions_to_win;
+    }
+
+
+    // Board this client wants to play (as Player 1). Throws IllegalArgumentException if it is not a valid size
+    public void set_board_size(int columns, int rows, int positions_to_win) {
+        if (!Board.is_valid_size(columns, rows, positions_to_win)) {
+            throw new IllegalArgumentException("Invalid board " + columns + "x" + rows + "x" + positions_to_win);
         }
+        this.columns = columns;
+        this.rows = rows;
+        this.positions_to_win = positions_to_win;
     }
 }
@@ -0,0 +1,182 @@
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+
+// Process-wide counters and histograms for matchmaking and play. Recording is a LongAdder increment or a
+// Histogram.record(), so it can sit on the move path; all formatting happens when the metrics are read.
+// Exposed over JMX as ConnectFour:type=Metrics (eg: in jconsole) and, if started, as a periodic text dump.
+// Times are in nanoseconds.
+public class Metrics {
+    static final String object_name = "ConnectFour:type=Metrics";
+
+    static final LongAdder matches = new LongAdder();
+    static final LongAdder broadcasts = new LongAdder();
+    static final LongAdder parse_failures = new LongAdder();
+    static final LongAdder resumes = new LongAdder();
+
+    static final Histogram time_to_match = new Histogram("time to match");
+    static final Histogram broadcasts_per_match = new Histogram("broadcasts per match");
+    // From sending a move until the opponent's move arrives, so it includes the opponent's thinking time. The
+    // protocol has no acknowledgement to time the network alone
+    static final Histogram move_reply_time = new Histogram("move reply time");
+    static final Histogram win_check = new Histogram("win check");
+    static final Histogram time_to_resume = new Histogram("time to resume");
+
+    static final Histogram[] histograms = {time_to_match, broadcasts_per_match, move_reply_time, win_check,
+        time_to_resume};
+    // broadcasts_per_match is a count rather than a time
+    static final boolean[] histogram_is_time = {true, false, true, true, true};
+
+    static boolean registered = false;
+    static ScheduledExecutorService dump_scheduler;
+
+
+    // Attributes for JMX. Named getX as JMX requires
+    public interface MetricsMXBean {
+        long getMatches();
+        long getBroadcasts();
+        long getParseFailures();
+        long getResumes();
+        Map<String, Long> getTimeToMatch();
+        Map<String, Long> getBroadcastsPerMatch();
+        Map<String, Long> getMoveReplyTime();
+        Map<String, Long> getWinCheck();
+        Map<String, Long> getTimeToResume();
+        String getReport();
+        void reset();
+    }
+
+
+    static class MetricsBean implements MetricsMXBean {
+        public long getMatches() {
+            return matches.sum();
+        }
+
+        public long getBroadcasts() {
+            return broadcasts.sum();
+        }
+
+        public long getParseFailures() {
+            return parse_failures.sum();
+        }
+
+        public long getResumes() {
+            return resumes.sum();
+        }
+
+        public Map<String, Long> getTimeToMatch() {
+            return get_summary(time_to_match);
+        }
+
+        public Map<String, Long> getBroadcastsPerMatch() {
+            return get_summary(broadcasts_per_match);
+        }
+
+        public Map<String, Long> getMoveReplyTime() {
+            return get_summary(move_reply_time);
+        }
+
+        public Map<String, Long> getWinCheck() {
+            return get_summary(win_check);
+        }
+
+        public Map<String, Long> getTimeToResume() {
+            return get_summary(time_to_resume);
+        }
+
+        public String getReport() {
+            return get_report();
+        }
+
+        public void reset() {
+            Metrics.reset();
+        }
+    }
+
+
+    // Registers the metrics with the platform MBean server and, if dump_seconds > 0, prints them that often
+    public static synchronized void start(int dump_seconds) {
+        if (!registered) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsBean(), new ObjectName(object_name));
+            }
+            catch (JMException e) {
+                System.out.println("Metrics: could not register " + object_name + ": " + e.getMessage());
+            }
+            registered = true;
+        }
+
+        if (dump_seconds > 0 && dump_scheduler == null) {
+            dump_scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "Metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            dump_scheduler.scheduleAtFixedRate(() -> System.out.print(get_report()),
+                dump_seconds, dump_seconds, TimeUnit.SECONDS);
+        }
+    }
+
+
+    // Count, percentiles and maximum of histogram, read from one snapshot.
+    // Percentiles are bucket upper bounds, so they are capped at the exact maximum
+    public static Map<String, Long> get_summary(Histogram histogram) {
+        long[] snapshot = histogram.get_snapshot();
+        long max = histogram.get_max();
+        Map<String, Long> summary = new LinkedHashMap<String, Long>();
+        summary.put("count", Histogram.get_count(snapshot));
+        summary.put("p50", Math.min(max, Histogram.get_percentile(snapshot, 50)));
+        summary.put("p90", Math.min(max, Histogram.get_percentile(snapshot, 90)));
+        summary.put("p99", Math.min(max, Histogram.get_percentile(snapshot, 99)));
+        summary.put("p99.9", Math.min(max, Histogram.get_percentile(snapshot, 99.9)));
+        summary.put("max", max);
+        return summary;
+    }
+
+
+    public static String get_report() {
+        StringBuilder report = new StringBuilder("Metrics:\n");
+        report.append("  matches: ").append(matches.sum())
+            .append("\tbroadcasts: ").append(broadcasts.sum())
+            .append("\tparse failures: ").append(parse_failures.sum())
+            .append("\tresumes: ").append(resumes.sum()).append("\n");
+
+        for (int i = 0; i < histograms.length; i++) {
+            report.append("  ").append(histograms[i].name).append(":");
+            for (Map.Entry<String, Long> entry : get_summary(histograms[i]).entrySet()) {
+                report.append(" ").append(entry.getKey()).append("=");
+                report.append(histogram_is_time[i] && !entry.getKey().equals("count") ?
+                    format_nanoseconds(entry.getValue()) : String.valueOf(entry.getValue()));
+            }
+            report.append("\n");
+        }
+        return report.toString();
+    }
+
+
+    public static String format_nanoseconds(long nanoseconds) {
+        if (nanoseconds < 10_000) {
+            return nanoseconds + "ns";
+        }
+        if (nanoseconds < 10_000_000) {
+            return nanoseconds / 1_000 + "us";
+        }
+        return nanoseconds / 1_000_000 + "ms";
+    }
+
+
+    public static void reset() {
+        matches.reset();
+        broadcasts.reset();
+        parse_failures.reset();
+        resumes.reset();
+        for (Histogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+}
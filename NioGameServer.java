@@ -0,0 +1,375 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+
+
+// Non-blocking version of GameServer. One selector thread handles every connection, reading and writing protocol lines
+// with ProtocolParser on pooled direct buffers, so sessions need no thread or Strings of their own.
+// AI moves are computed on a worker pool and handed back to the selector thread. Each worker keeps one AIPlayer (and
+// transposition table) for all the sessions it serves, so per-session state is little more than a BitBoard.
+// Replies are not written as they are produced: sessions with output are collected during each selector loop and
+// flushed together at its end, so a session gets at most one write per loop however many messages it queued.
+// Wire-compatible with Client: the server accepted the connection, so it is Player 1 and moves first.
+// With a game log directory, every session's moves are also appended to a GameLog there.
+// ie: java NioGameServer 9000
+//     java NioGameServer 9000 game_logs
+public class NioGameServer {
+    final int tcp_port;
+    final int server_player = 1;
+    final int client_player = 2;
+    // Same INSERT column base as GameMaster
+    final int column_base = 1;
+    final long ai_milliseconds_per_move = 45;
+
+    // Longest protocol line is well under this
+    final int buffer_size = 64;
+    final BufferPool buffer_pool = new BufferPool(buffer_size);
+
+    // null if sessions are not recorded
+    final GameLog game_log;
+
+    final ExecutorService ai_executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    final ThreadLocal<AIPlayer> ai_players;
+    // Sessions whose AI move is ready, to be written by the selector thread
+    final ConcurrentLinkedQueue<Session> ready_sessions = new ConcurrentLinkedQueue<Session>();
+    // Sessions with queued output, flushed at the end of the current selector loop. Selector thread only
+    final List<Session> pending_flushes = new ArrayList<Session>();
+
+    Selector selector;
+    ServerSocketChannel server_channel;
+    volatile boolean running = false;
+
+
+    // Per-connection game state
+    static class Session {
+        final SocketChannel channel;
+        final BitBoard board = new BitBoard(7, 6, 4);
+        // Id of this game in game_log, if recording
+        long game_id;
+        ByteBuffer read_buffer;
+        ByteBuffer write_buffer;
+        // Column chosen by the AI (base-0), -1 if none; set by a worker before the session is queued
+        volatile int ai_column = -1;
+        // Set from request_ai_move until play_ai_move: it is the server's turn, so the client may not insert
+        boolean awaiting_ai = false;
+        // Close once write_buffer is flushed
+        boolean closing = false;
+        // Already in pending_flushes
+        boolean flush_pending = false;
+
+        Session(SocketChannel channel, ByteBuffer read_buffer, ByteBuffer write_buffer) {
+            this.channel = channel;
+            this.read_buffer = read_buffer;
+            this.write_buffer = write_buffer;
+        }
+    }
+
+
+    NioGameServer(int tcp_port) {
+        this(tcp_port, null);
+    }
+
+
+    NioGameServer(int tcp_port, GameLog game_log) {
+        this.tcp_port = tcp_port;
+        this.game_log = game_log;
+        OpeningBook opening_book = OpeningBook.open_if_exists(Client.opening_book_file_path);
+        this.ai_players = ThreadLocal.withInitial(() -> {
+            AIPlayer ai_player = new AIPlayer(ai_milliseconds_per_move);
+            ai_player.opening_book = opening_book;
+            return ai_player;
+        });
+    }
+
+
+    public static void main(String[] args) throws IOException {
+        int tcp_port = args.length > 0 ? Integer.parseInt(args[0]) : 9000;
+        GameLog game_log = args.length > 1 ? new GameLog(args[1]) : null;
+        Metrics.start(GameServer.metrics_dump_seconds);
+        new NioGameServer(tcp_port, game_log).start();
+        if (game_log != null) {
+            game_log.close();
+        }
+    }
+
+
+    // Runs the selector loop until stop() is called
+    public void start() throws IOException {
+        selector = Selector.open();
+        server_channel = ServerSocketChannel.open();
+        server_channel.bind(new InetSocketAddress(tcp_port));
+        server_channel.configureBlocking(false);
+        server_channel.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+        System.out.println("NioGameServer: Listening on port: " + tcp_port);
+
+        try {
+            while (running) {
+                selector.select();
+
+                // AI moves finished since the last loop
+                Session ready_session;
+                while ((ready_session = ready_sessions.poll()) != null) {
+                    play_ai_move(ready_session);
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        }
+                        else {
+                            if (key.isReadable()) {
+                                read((Session) key.attachment());
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                flush((Session) key.attachment());
+                            }
+                        }
+                    }
+                    catch (IOException e) {
+                        // A broken connection only ends its own session
+                        if (key.attachment() != null) {
+                            close((Session) key.attachment());
+                        }
+                    }
+                }
+
+                flush_pending_sessions();
+            }
+        }
+        finally {
+            ai_executor.shutdownNow();
+            selector.close();
+            server_channel.close();
+        }
+    }
+
+
+    public void accept() throws IOException {
+        SocketChannel channel = server_channel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+
+        Session session = new Session(channel, buffer_pool.acquire(), buffer_pool.acquire());
+        if (game_log != null) {
+            session.game_id = GameLog.new_game_id();
+        }
+        channel.register(selector, SelectionKey.OP_READ, session);
+        // Server goes first
+        request_ai_move(session);
+    }
+
+
+    // Reads and handles every complete line from the client
+    public void read(Session session) throws IOException {
+        ByteBuffer buffer = session.read_buffer;
+        if (session.channel.read(buffer) == -1) {
+            close(session);
+            return;
+        }
+        buffer.flip();
+
+        int line_end;
+        while (!session.closing && (line_end = ProtocolParser.find_line_end(buffer)) != -1) {
+            int message = ProtocolParser.parse_line(buffer, buffer.position(), line_end);
+            buffer.position(line_end + 1);
+            handle_message(session, message);
+        }
+        // Buffers are back in the pool once the session is closed
+        if (session.read_buffer == null) {
+            return;
+        }
+        buffer.compact();
+
+        // A full buffer without a newline is not a valid message
+        if (!session.closing && !buffer.hasRemaining()) {
+            Metrics.parse_failures.increment();
+            send_error(session);
+        }
+    }
+
+
+    // Same rules as GameMaster.opponents_turn
+    public void handle_message(Session session, int message) throws IOException {
+        if (message == ProtocolParser.win || message == ProtocolParser.error) {
+            // YOU WIN from the client agrees the server's last move won
+            if (message == ProtocolParser.win && session.board.has_won(server_player)) {
+                record_result(session, server_player);
+            }
+            close(session);
+            return;
+        }
+        if (message == ProtocolParser.invalid) {
+            Metrics.parse_failures.increment();
+            send_error(session);
+            return;
+        }
+
+        // Out of turn (eg: sent while the AI is thinking, or a second INSERT in the same read)
+        if (session.awaiting_ai) {
+            send_error(session);
+            return;
+        }
+
+        int column = message - column_base;
+        if (session.board.insert(column, client_player) == -1) {
+            send_error(session);
+            return;
+        }
+        record_move(session, client_player, column);
+        if (session.board.has_won(client_player)) {
+            record_result(session, client_player);
+            ProtocolParser.write_win(session.write_buffer);
+            session.closing = true;
+            queue_flush(session);
+        }
+        else {
+            request_ai_move(session);
+        }
+    }
+
+
+    // Chooses the AI's move on a worker thread, then passes the session back to the selector thread
+    public void request_ai_move(Session session) {
+        session.awaiting_ai = true;
+        BitBoard board = new BitBoard(session.board);
+        ai_executor.execute(() -> {
+            session.ai_column = ai_players.get().choose_column(board, server_player);
+            ready_sessions.offer(session);
+            selector.wakeup();
+        });
+    }
+
+
+    // Plays and sends the AI's chosen move. A full board is a tie, reported with ERROR like GameMaster does
+    public void play_ai_move(Session session) {
+        if (session.read_buffer == null) {
+            return;
+        }
+        session.awaiting_ai = false;
+        if (session.board.insert(session.ai_column, server_player) == -1) {
+            if (session.board.is_tie()) {
+                record_result(session, 0);
+            }
+            send_error(session);
+            return;
+        }
+        record_move(session, server_player, session.ai_column);
+        ProtocolParser.write_insert(session.write_buffer, session.ai_column + column_base);
+        queue_flush(session);
+    }
+
+
+    // Appends the move just played on session's board (base-0 column) to game_log, if recording
+    public void record_move(Session session, int player, int column) {
+        if (game_log != null) {
+            game_log.append_move(session.game_id, session.board.get_move_count(), player, column);
+        }
+    }
+
+
+    // winner is 0 for a tie
+    public void record_result(Session session, int winner) {
+        if (game_log != null) {
+            game_log.append_result(session.game_id, session.board.get_move_count(), winner);
+        }
+    }
+
+
+    public void send_error(Session session) {
+        ProtocolParser.write_error(session.write_buffer);
+        session.closing = true;
+        queue_flush(session);
+    }
+
+
+    // Marks session to be flushed at the end of this selector loop
+    public void queue_flush(Session session) {
+        if (!session.flush_pending) {
+            session.flush_pending = true;
+            pending_flushes.add(session);
+        }
+    }
+
+
+    // One write per session with output queued during this loop
+    public void flush_pending_sessions() {
+        for (int i = 0; i < pending_flushes.size(); i++) {
+            Session session = pending_flushes.get(i);
+            session.flush_pending = false;
+            if (session.write_buffer == null) {
+                continue;
+            }
+            try {
+                flush(session);
+            }
+            catch (IOException e) {
+                close(session);
+            }
+        }
+        pending_flushes.clear();
+    }
+
+
+    // Writes as much as the socket takes, waiting for OP_WRITE if anything is left
+    public void flush(Session session) throws IOException {
+        ByteBuffer buffer = session.write_buffer;
+        buffer.flip();
+        session.channel.write(buffer);
+        boolean remaining = buffer.hasRemaining();
+        buffer.compact();
+
+        SelectionKey key = session.channel.keyFor(selector);
+        if (remaining) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+        else if (session.closing) {
+            close(session);
+        }
+        else {
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+
+    // Closes the connection and returns its buffers to the pool
+    public void close(Session session) {
+        if (session.read_buffer == null) {
+            return;
+        }
+        session.closing = true;
+        try {
+            session.channel.close();
+        }
+        catch (IOException e) {}
+
+        buffer_pool.release(session.read_buffer);
+        buffer_pool.release(session.write_buffer);
+        session.read_buffer = null;
+        session.write_buffer = null;
+    }
+
+
+    // To end the selector loop
+    public void stop() {
+        running = false;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+}
@@ -1,13 +0,0 @@
-
-
-public class Node {
-    // 0 -> x
-    // 1 -> o
-    int state = -1;
-    final int index;
-
-    Node(int index) {
-        this.index = index;
-        // this.state = new Random().nextInt(4) -1;
-    }
-}
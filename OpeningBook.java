@@ -0,0 +1,195 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+
+// Precomputed best moves for the first plies of a game, read straight from a memory-mapped file.
+// Positions and their left-right mirror images share one entry, keyed by the smaller of the two BitBoard keys.
+// Opening a book maps the file without reading it, and lookups binary search the mapped bytes, so nothing is
+// loaded onto the heap.
+//
+// File format (big-endian):
+//   header (16 bytes): magic "C4BK", version, columns, rows, positions_to_win, plies, 3 reserved bytes, entry count
+//   entries (12 bytes each, sorted by key): canonical key (long), score (high 24 bits) and base-0 column (low 8 bits)
+//
+// To generate a book offline:
+// ie: java OpeningBook opening_book.bin 6 200
+public class OpeningBook {
+    static final int magic = 0x43344243; // "C4BK"
+    static final int version = 1;
+    static final int header_bytes = 16;
+    static final int entry_bytes = 12;
+
+    final MappedByteBuffer book_buffer;
+    final int columns;
+    final int rows;
+    final int positions_to_win;
+    final int plies;
+    final int entry_count;
+
+
+    OpeningBook(MappedByteBuffer book_buffer) {
+        this.book_buffer = book_buffer;
+        if (book_buffer.getInt(0) != magic || book_buffer.get(4) != version) {
+            throw new IllegalArgumentException("Not an opening book file, or an unsupported version");
+        }
+        this.columns = book_buffer.get(5);
+        this.rows = book_buffer.get(6);
+        this.positions_to_win = book_buffer.get(7);
+        this.plies = book_buffer.get(8);
+        this.entry_count = book_buffer.getInt(12);
+    }
+
+
+    // Maps the book at file_path. The mapping stays valid after the channel is closed
+    public static OpeningBook open(String file_path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(file_path), StandardOpenOption.READ)) {
+            return new OpeningBook(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+
+    // Returns null instead of failing when there is no usable book, so play can continue with search only
+    public static OpeningBook open_if_exists(String file_path) {
+        if (!Files.exists(Paths.get(file_path))) {
+            return null;
+        }
+        try {
+            return open(file_path);
+        }
+        catch (Exception e) {
+            System.out.println("Opening book could not be loaded: " + file_path);
+            return null;
+        }
+    }
+
+
+    // Returns the book's base-0 column for the position, -1 if the position is not in the book
+    public int get_column(BitBoard board) {
+        if (board.columns != columns || board.rows != rows || board.positions_to_win != positions_to_win ||
+            board.move_count >= plies) {
+            return -1;
+        }
+        long key = board.get_key();
+        long mirrored_key = mirror_key(key, board.columns, board.column_bits);
+        int entry = find_entry(Math.min(key, mirrored_key));
+        if (entry == -1) {
+            return -1;
+        }
+        int column = book_buffer.getInt(header_bytes + entry * entry_bytes + 8) & 0xFF;
+        // Stored moves are for the canonical (smaller key) side of the mirror
+        return key <= mirrored_key ? column : columns - 1 - column;
+    }
+
+
+    // Binary search over the sorted keys. Returns the entry index, -1 if missing
+    public int find_entry(long key) {
+        int low = 0;
+        int high = entry_count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middle_key = book_buffer.getLong(header_bytes + middle * entry_bytes);
+            if (middle_key < key) {
+                low = middle + 1;
+            }
+            else if (middle_key > key) {
+                high = middle - 1;
+            }
+            else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+
+    // BitBoard keys are independent per column group, so mirroring the key mirrors the position
+    public static long mirror_key(long key, int columns, int column_bits) {
+        long column_mask = (1L << column_bits) - 1;
+        long mirrored = 0L;
+        for (int i = 0; i < columns; i++) {
+            long column = (key >>> (i * column_bits)) & column_mask;
+            mirrored |= column << ((columns - 1 - i) * column_bits);
+        }
+        return mirrored;
+    }
+
+
+    public static void main(String[] args) throws IOException {
+        String file_path = args.length > 0 ? args[0] : "opening_book.bin";
+        int plies = args.length > 1 ? Integer.parseInt(args[1]) : 6;
+        long milliseconds_per_position = args.length > 2 ? Long.parseLong(args[2]) : 200;
+
+        generate(file_path, 7, 6, 4, plies, milliseconds_per_position);
+    }
+
+
+    // Searches every distinct position (up to mirroring) of fewer than plies moves and writes the book
+    public static void generate(String file_path, int columns, int rows, int positions_to_win, int plies,
+        long milliseconds_per_position) throws IOException {
+        BitBoard board = new BitBoard(columns, rows, positions_to_win);
+        TreeMap<Long, BitBoard> positions = new TreeMap<Long, BitBoard>();
+        collect_positions(board, plies, positions);
+        System.out.println("Opening book: searching " + positions.size() + " positions for " +
+            milliseconds_per_position + " ms each");
+
+        AIPlayer ai_player = new AIPlayer(milliseconds_per_position, 22);
+        ByteBuffer entries = ByteBuffer.allocate(positions.size() * entry_bytes);
+        int searched = 0;
+
+        for (Map.Entry<Long, BitBoard> position : positions.entrySet()) {
+            BitBoard position_board = position.getValue();
+            int player = position_board.move_count % 2 + 1;
+            int column = ai_player.choose_column(position_board, player);
+
+            // Store the move for the canonical orientation
+            long key = position_board.get_key();
+            if (key != position.getKey()) {
+                column = columns - 1 - column;
+            }
+            entries.putLong(position.getKey());
+            entries.putInt((ai_player.last_score << 8) | (column & 0xFF));
+
+            if (++searched % 1000 == 0) {
+                System.out.println("Opening book: " + searched + "/" + positions.size());
+            }
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(header_bytes);
+        header.putInt(magic).put((byte) version).put((byte) columns).put((byte) rows)
+            .put((byte) positions_to_win).put((byte) plies).put(new byte[3]).putInt(positions.size());
+        header.flip();
+        entries.flip();
+
+        try (FileChannel channel = FileChannel.open(Paths.get(file_path), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(new ByteBuffer[] {header, entries});
+        }
+        System.out.println("Opening book: wrote " + positions.size() + " positions to " + file_path);
+    }
+
+
+    // Depth-first walk adding a copy of each unfinished position, keyed by its canonical key
+    public static void collect_positions(BitBoard board, int plies, Map<Long, BitBoard> positions) {
+        long key = board.get_key();
+        long canonical_key = Math.min(key, mirror_key(key, board.columns, board.column_bits));
+        if (board.move_count >= plies || positions.containsKey(canonical_key)) {
+            return;
+        }
+        positions.put(canonical_key, new BitBoard(board));
+
+        int player = board.move_count % 2 + 1;
+        for (int column = 0; column < board.columns; column++) {
+            if (board.insert(column, player) == -1) {
+                continue;
+            }
+            // Finished games need no book move
+            if (!board.has_won(player) && !board.is_tie()) {
+                collect_positions(board, plies, positions);
+            }
+            board.undo_move();
+        }
+    }
+}
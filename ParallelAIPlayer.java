@@ -0,0 +1,123 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+
+// Multi-core AI player (lazy SMP). Every worker runs its own iterative-deepening search from the root on a
+// ForkJoinPool, and they all share one lock-free transposition table, so helpers fill the table with results the
+// main worker then reuses. Helpers rotate their move order and skip depths so they start on different subtrees.
+// The main worker's move is played; helpers are cancelled as soon as it finishes.
+// With measure_speedup(), each move is searched again on one thread afterwards, starting from the same table contents,
+// and the report compares how long both took to finish the same depth.
+public class ParallelAIPlayer extends AIPlayer {
+    final int parallelism;
+    // Created once per player and reused for every move; call shutdown() when the player is discarded
+    final ForkJoinPool pool;
+    // Worker 0 is the main search, the rest are helpers
+    final AIPlayer[] workers;
+
+    // Single-threaded search with its own table of the same size, run after each move. null unless measure_speedup()
+    AIPlayer baseline;
+
+    // Report of the last move chosen, across all workers
+    long last_total_nodes;
+    // Deepest depth both the main worker and the baseline finished, and how many times faster the main worker got there.
+    // 0 if not measured
+    int last_speedup_depth;
+    double last_speedup;
+
+
+    ParallelAIPlayer(long milliseconds_per_move, int parallelism) {
+        this(milliseconds_per_move, parallelism, default_table_bits + 2);
+    }
+
+
+    ParallelAIPlayer(long milliseconds_per_move, int parallelism, int table_bits) {
+        super(milliseconds_per_move, table_bits);
+        this.parallelism = parallelism;
+        this.pool = new ForkJoinPool(parallelism);
+        this.workers = new AIPlayer[parallelism];
+
+        workers[0] = new AIPlayer(milliseconds_per_move, transposition_table);
+        for (int i = 1; i < parallelism; i++) {
+            workers[i] = new AIPlayer(milliseconds_per_move, transposition_table);
+            workers[i].order_rotation = i;
+            workers[i].depth_step = 1 + i % 2;
+        }
+    }
+
+
+    @Override
+    public int choose_column(BitBoard game_board, int target_player) {
+        int book_column = get_book_column(game_board);
+        if (book_column != -1) {
+            return book_column;
+        }
+        if (baseline != null) {
+            baseline.transposition_table.copy_from(transposition_table);
+        }
+        long start_time = System.nanoTime();
+        List<ForkJoinTask<Integer>> tasks = new ArrayList<ForkJoinTask<Integer>>();
+
+        for (AIPlayer worker : workers) {
+            worker.cancelled = false;
+            tasks.add(pool.submit(() -> worker.choose_column(game_board, target_player)));
+        }
+
+        // Main worker decides the move; helpers only need to stop
+        int best_column = tasks.get(0).join();
+        for (int i = 1; i < workers.length; i++) {
+            workers[i].cancelled = true;
+        }
+
+        last_total_nodes = 0;
+        for (int i = 0; i < workers.length; i++) {
+            tasks.get(i).join();
+            last_total_nodes += workers[i].last_nodes;
+        }
+
+        last_depth = workers[0].last_depth;
+        last_score = workers[0].last_score;
+        last_nodes = workers[0].last_nodes;
+        last_nanoseconds = System.nanoTime() - start_time;
+
+        if (baseline != null) {
+            // After the parallel search, so it has the cores to itself
+            baseline.choose_column(game_board, target_player);
+            last_speedup_depth = Math.min(last_depth, baseline.last_depth);
+            last_speedup = (double) baseline.depth_nanoseconds[last_speedup_depth] /
+                workers[0].depth_nanoseconds[last_speedup_depth];
+        }
+        return best_column;
+    }
+
+
+    // Searches every move again on one thread to report the real speedup. Doubles the time each move takes
+    public void measure_speedup() {
+        baseline = new AIPlayer(nanoseconds_per_move / 1_000_000L, transposition_table.index_bits);
+    }
+
+
+    // Adds the combined search speed, and with measure_speedup() the time to depth against one thread
+    @Override
+    public String get_search_report() {
+        if (last_from_book) {
+            return super.get_search_report();
+        }
+        double seconds = last_nanoseconds / 1_000_000_000.0;
+        String report = super.get_search_report() + "\n" + parallelism + " workers searched " + last_total_nodes +
+            " nodes (" + String.format("%,.0f", seconds > 0 ? last_total_nodes / seconds : 0) + " nodes/s)";
+        if (baseline == null) {
+            return report;
+        }
+        return report + "\nDepth " + last_speedup_depth + " in " +
+            String.format("%.1f", workers[0].depth_nanoseconds[last_speedup_depth] / 1_000_000.0) + " ms, " +
+            String.format("%.1f", baseline.depth_nanoseconds[last_speedup_depth] / 1_000_000.0) + " ms on one thread (" +
+            String.format("%.2f", last_speedup) + "x speedup); one thread reached depth " + baseline.last_depth;
+    }
+
+
+    // Stops the worker threads
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+}
@@ -0,0 +1,121 @@
+import java.nio.ByteBuffer;
+
+
+// Parses and writes game protocol lines (INSERT:<n>, YOU WIN, ERROR) directly on bytes, without creating Strings.
+// Accepts the same lines GameMaster does: anything other than YOU WIN or ERROR is read as an INSERT, taking the
+// integer after the first ':'.
+public class ProtocolParser {
+    // Results of parse_line; INSERT returns its column, never negative (INSERT:-1 is invalid)
+    static final int win = Integer.MIN_VALUE;
+    static final int error = Integer.MIN_VALUE + 1;
+    static final int invalid = Integer.MIN_VALUE + 2;
+    // Not produced by parse_line; used by readers when the connection closed instead
+    static final int closed = Integer.MIN_VALUE + 3;
+
+    static final byte[] insert_bytes = "INSERT:".getBytes();
+    static final byte[] win_bytes = "YOU WIN".getBytes();
+    static final byte[] error_bytes = "ERROR".getBytes();
+    static final byte newline = '\n';
+
+
+    // Returns the index of the next newline between buffer's position and limit, -1 if there is none yet
+    public static int find_line_end(ByteBuffer buffer) {
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            if (buffer.get(i) == newline) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    // Parses the line in buffer from start (inclusive) to end (exclusive, the newline), ignoring a trailing '\r'
+    public static int parse_line(ByteBuffer buffer, int start, int end) {
+        if (end > start && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+        if (matches(buffer, start, end, win_bytes)) {
+            return win;
+        }
+        if (matches(buffer, start, end, error_bytes)) {
+            return error;
+        }
+
+        // Integer between the first ':' and the next ':' (or the end of the line)
+        int index = start;
+        while (index < end && buffer.get(index) != ':') {
+            index++;
+        }
+        index++;
+        boolean negative = false;
+        if (index < end && (buffer.get(index) == '-' || buffer.get(index) == '+')) {
+            negative = buffer.get(index) == '-';
+            index++;
+        }
+
+        long value = 0;
+        int digits = 0;
+        while (index < end && buffer.get(index) != ':') {
+            int digit = buffer.get(index) - '0';
+            // Also rejects anything too long to be an int
+            if (digit < 0 || digit > 9 || ++digits > 10) {
+                return invalid;
+            }
+            value = value * 10 + digit;
+            index++;
+        }
+        value = negative ? -value : value;
+        if (digits == 0 || value < 0 || value > Integer.MAX_VALUE) {
+            return invalid;
+        }
+        return (int) value;
+    }
+
+
+    public static boolean matches(ByteBuffer buffer, int start, int end, byte[] expected) {
+        if (end - start != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (buffer.get(start + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    // Writes INSERT:<column>\n
+    public static void write_insert(ByteBuffer buffer, int column) {
+        buffer.put(insert_bytes);
+        write_int(buffer, column);
+        buffer.put(newline);
+    }
+
+
+    public static void write_win(ByteBuffer buffer) {
+        buffer.put(win_bytes).put(newline);
+    }
+
+
+    public static void write_error(ByteBuffer buffer) {
+        buffer.put(error_bytes).put(newline);
+    }
+
+
+    // Writes the decimal digits of value
+    public static void write_int(ByteBuffer buffer, int value) {
+        long remaining = value;
+        if (remaining < 0) {
+            buffer.put((byte) '-');
+            remaining = -remaining;
+        }
+        long divisor = 1;
+        while (divisor * 10 <= remaining) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            buffer.put((byte) ('0' + remaining / divisor % 10));
+        }
+    }
+}
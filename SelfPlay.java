@@ -0,0 +1,219 @@
+import java.util.SplittableRandom;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+
+// Batch self-play for tuning players and checking rule changes. Games are played with ConnectFour's rules
+// (insert_node, has_won, is_tie) but without sockets, terminal input or a display, and are spread over every core
+// with a parallel stream. Players are:
+//   random      -> any playable column
+//   heuristic   -> wins or blocks an immediate win if it can, otherwise the best AIPlayer.evaluate() after one move
+//   search:<ms> -> AIPlayer with <ms> milliseconds per move (one per worker thread)
+// The two players swap seats every game, so results are reported both per seat and per player.
+// ie: java SelfPlay random heuristic 1000000
+//     java SelfPlay search:5 heuristic 2000 42    (the last argument is the random seed)
+public class SelfPlay {
+    static final int column_base = 0;
+    static final long default_seed = 20240101L;
+    // Only used for evaluate(), which keeps no search state, so one instance serves every thread
+    static final AIPlayer evaluator = new AIPlayer(0, 1);
+
+    final String[] player_names;
+    final ThreadLocal<Player>[] players;
+    final long seed;
+
+
+    // Chooses moves for one seat. Each worker thread gets its own instance
+    interface Player {
+        // Returns a base-0 column to play for player on board, which must be left as it was found
+        int choose_column(BitBoard board, int player, SplittableRandom random);
+    }
+
+
+    // Aggregate results. Merged across worker threads by the stream
+    static class Results {
+        long games = 0;
+        long moves = 0;
+        // Wins by seat: [0] draws, [1] Player 1, [2] Player 2
+        final long[] seat_wins = new long[3];
+        // Wins by player name index (player_names[0], player_names[1])
+        final long[] player_wins = new long[2];
+        long forfeits = 0;
+
+
+        public void merge(Results other) {
+            games += other.games;
+            moves += other.moves;
+            for (int i = 0; i < seat_wins.length; i++) {
+                seat_wins[i] += other.seat_wins[i];
+            }
+            for (int i = 0; i < player_wins.length; i++) {
+                player_wins[i] += other.player_wins[i];
+            }
+            forfeits += other.forfeits;
+        }
+    }
+
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    SelfPlay(String first_player, String second_player, long seed) {
+        this.player_names = new String[] {first_player, second_player};
+        this.players = new ThreadLocal[] {
+            ThreadLocal.withInitial(create_player(first_player)), ThreadLocal.withInitial(create_player(second_player))
+        };
+        this.seed = seed;
+    }
+
+
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.out.println("Usage: java SelfPlay <player> <player> <games> [seed]\n" +
+                "Players: random, heuristic, search:<ms>\n" +
+                "ie: java SelfPlay random heuristic 1000000");
+            System.exit(0);
+        }
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : default_seed;
+        SelfPlay self_play = new SelfPlay(args[0], args[1], seed);
+        int games = Integer.parseInt(args[2]);
+
+        long start_time = System.nanoTime();
+        Results results = self_play.play_games(games);
+        double seconds = (System.nanoTime() - start_time) / 1_000_000_000.0;
+        System.out.println(self_play.get_report(results, seconds));
+    }
+
+
+    public static Supplier<Player> create_player(String name) {
+        if (name.equals("random")) {
+            return () -> SelfPlay::random_column;
+        }
+        if (name.equals("heuristic")) {
+            return () -> SelfPlay::heuristic_column;
+        }
+        if (name.startsWith("search:")) {
+            long milliseconds_per_move = Long.parseLong(name.substring("search:".length()));
+            return () -> {
+                AIPlayer ai_player = new AIPlayer(milliseconds_per_move);
+                return (board, player, random) -> ai_player.choose_column(board, player);
+            };
+        }
+        throw new IllegalArgumentException("Unknown player: " + name);
+    }
+
+
+    // Plays games on every core
+    public Results play_games(int games) {
+        return IntStream.range(0, games).parallel().collect(Results::new, this::play_game, Results::merge);
+    }
+
+
+    // Plays one game and adds it to results. Even games give Player 1 to player_names[0], odd games to player_names[1]
+    public void play_game(Results results, int game_number) {
+        SplittableRandom random = new SplittableRandom(seed + game_number * 0x9E3779B97F4A7C15L);
+        ConnectFour connect_four = new ConnectFour(1, column_base);
+        int first_player_index = game_number % 2;
+
+        int player = 1;
+        int winner = 0;
+        int moves = 0;
+        while (true) {
+            int player_index = player == 1 ? first_player_index : 1 - first_player_index;
+            int column = players[player_index].get().choose_column(connect_four.bit_board, player, random);
+
+            // An invalid move loses the game
+            if (connect_four.insert_node(column + column_base, player) == -1) {
+                results.forfeits++;
+                winner = 3 - player;
+                break;
+            }
+            moves++;
+            if (connect_four.has_won(player)) {
+                winner = player;
+                break;
+            }
+            if (connect_four.is_tie()) {
+                break;
+            }
+            player = 3 - player;
+        }
+
+        results.games++;
+        results.moves += moves;
+        results.seat_wins[winner]++;
+        if (winner != 0) {
+            results.player_wins[winner == 1 ? first_player_index : 1 - first_player_index]++;
+        }
+    }
+
+
+    public static int random_column(BitBoard board, int player, SplittableRandom random) {
+        int column = random.nextInt(board.columns);
+        // Some column is playable whenever a move is asked for
+        while (!board.can_insert(column)) {
+            column = (column + 1) % board.columns;
+        }
+        return column;
+    }
+
+
+    public static int heuristic_column(BitBoard board, int player, SplittableRandom random) {
+        // Take a win, then block the opponent's
+        for (int i = 0; i < 2; i++) {
+            int target_player = i == 0 ? player : 3 - player;
+            for (int column = 0; column < board.columns; column++) {
+                if (board.can_insert(column)) {
+                    board.insert(column, target_player);
+                    boolean won = board.has_won(target_player);
+                    board.undo_move();
+                    if (won) {
+                        return column;
+                    }
+                }
+            }
+        }
+
+        // Best evaluation, ties broken at random
+        int best_column = -1;
+        int best_score = Integer.MIN_VALUE;
+        int best_count = 0;
+        for (int column = 0; column < board.columns; column++) {
+            if (!board.can_insert(column)) {
+                continue;
+            }
+            board.insert(column, player);
+            int score = evaluator.evaluate(board, player);
+            board.undo_move();
+
+            if (score > best_score) {
+                best_column = column;
+                best_score = score;
+                best_count = 1;
+            }
+            else if (score == best_score && random.nextInt(++best_count) == 0) {
+                best_column = column;
+            }
+        }
+        return best_column;
+    }
+
+
+    public String get_report(Results results, double seconds) {
+        return "SelfPlay: " + player_names[0] + " vs " + player_names[1] + ", " + results.games + " games on " +
+            Runtime.getRuntime().availableProcessors() + " cores\n" +
+            "  Player 1 wins:\t" + get_percentage(results.seat_wins[1], results.games) + "\n" +
+            "  Player 2 wins:\t" + get_percentage(results.seat_wins[2], results.games) + "\n" +
+            "  Draws:\t\t" + get_percentage(results.seat_wins[0], results.games) + "\n" +
+            "  " + player_names[0] + " wins:\t" + get_percentage(results.player_wins[0], results.games) + "\n" +
+            "  " + player_names[1] + " wins:\t" + get_percentage(results.player_wins[1], results.games) + "\n" +
+            "  Forfeits:\t\t" + results.forfeits + "\n" +
+            "  Average length:\t" + String.format("%.2f", (double) results.moves / Math.max(1, results.games)) +
+            " moves\n" +
+            "  Throughput:\t\t" + String.format("%,.0f", results.games / seconds) + " games/s (" +
+            String.format("%.2f", seconds) + " s)";
+    }
+
+
+    public static String get_percentage(long count, long total) {
+        return String.format("%.2f%%", 100.0 * count / Math.max(1, total)) + " (" + count + ")";
+    }
+}
@@ -0,0 +1,185 @@
+import java.lang.invoke.VarHandle;
+
+
+// Live moves of one game for any number of spectators. The game's thread is the only writer: it puts each move in a
+// ring buffer and updates a copy of the board's cells, then bumps a volatile version. It never waits for spectators.
+// Each spectator reads at its own cursor. One that falls more than a ring behind finds its entries overwritten and
+// resyncs from get_snapshot() instead, so a slow viewer only loses deltas and never slows the game.
+//
+// version is even when idle and odd while the writer is publishing (a seqlock), and version / 2 is the number of
+// entries published, so readers can tell both whether a snapshot was torn and whether a ring entry is still valid.
+public class SpectatorFeed {
+    static final int move_entry = 0;
+    static final int result_entry = 1;
+    static final int undo_entry = 2;
+    // winner before the game has ended; -1 for a game that ended without a result (eg: an error)
+    static final int not_finished = -2;
+
+    static final int default_ring_size = 64;
+
+    final long game_id;
+    final int columns;
+    final int rows;
+    final int positions_to_win;
+
+    // Entries packed as type (8 bits), player (8), column (16, base-0) and move number (32)
+    final long[] ring;
+    final int ring_mask;
+    // 0 empty, 1 or 2 for a player's stone, by row * columns + column
+    final byte[] cells;
+    final int[] column_heights;
+    int move_count = 0;
+
+    volatile long version = 0;
+    volatile int winner = not_finished;
+    // Spectators waiting for new entries wait on this
+    final Object signal = new Object();
+
+
+    SpectatorFeed(long game_id, int columns, int rows, int positions_to_win) {
+        this(game_id, columns, rows, positions_to_win, default_ring_size);
+    }
+
+
+    // ring_size must be a power of two
+    SpectatorFeed(long game_id, int columns, int rows, int positions_to_win, int ring_size) {
+        this.game_id = game_id;
+        this.columns = columns;
+        this.rows = rows;
+        this.positions_to_win = positions_to_win;
+        this.ring = new long[ring_size];
+        this.ring_mask = ring_size - 1;
+        this.cells = new byte[columns * rows];
+        this.column_heights = new int[columns];
+    }
+
+
+    // Writer side: target_player dropped a stone into the base-0 column
+    public void publish_move(int target_player, int column) {
+        if (winner != not_finished || column < 0 || column >= columns || column_heights[column] >= rows) {
+            return;
+        }
+        version++;
+        // The odd version must be visible before any cell changes
+        VarHandle.releaseFence();
+        cells[column_heights[column]++ * columns + column] = (byte) target_player;
+        move_count++;
+        put_entry(move_entry, target_player, column);
+        version++;
+        wake_spectators();
+    }
+
+
+    // Writer side: target_player's last stone, in the base-0 column, was taken back
+    public void publish_undo(int target_player, int column) {
+        if (winner != not_finished || column < 0 || column >= columns || column_heights[column] == 0) {
+            return;
+        }
+        version++;
+        VarHandle.releaseFence();
+        cells[--column_heights[column] * columns + column] = 0;
+        // The entry carries the number of the move taken back
+        put_entry(undo_entry, target_player, column);
+        move_count--;
+        version++;
+        wake_spectators();
+    }
+
+
+    // Writer side: the game ended; winner is 0 for a tie
+    public void publish_result(int winner) {
+        if (this.winner != not_finished) {
+            return;
+        }
+        version++;
+        VarHandle.releaseFence();
+        put_entry(result_entry, winner, 0);
+        this.winner = winner;
+        version++;
+        wake_spectators();
+    }
+
+
+    // Writer side: ends the feed if no result was published (eg: the connection failed)
+    public void finish() {
+        publish_result(-1);
+    }
+
+
+    public void put_entry(int type, int player, int column) {
+        long sequence = version >>> 1;
+        ring[(int) sequence & ring_mask] = ((long) type << 56) | ((long) (player & 0xFF) << 48) |
+            ((long) (column & 0xFFFF) << 32) | move_count;
+    }
+
+
+    public void wake_spectators() {
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+    }
+
+
+    // Number of entries published so far
+    public long get_sequence() {
+        return version >>> 1;
+    }
+
+
+    // Entry at sequence. Only valid if is_available(sequence) is still true after reading it
+    public long get_entry(long sequence) {
+        long entry = ring[(int) sequence & ring_mask];
+        // Keeps the read above ahead of the is_available check after it
+        VarHandle.acquireFence();
+        return entry;
+    }
+
+
+    // False once the writer has started overwriting the entry's slot
+    public boolean is_available(long sequence) {
+        return get_sequence() - sequence < ring.length;
+    }
+
+
+    // Copies the board into snapshot_cells (columns * rows). Returns the sequence it corresponds to
+    public long get_snapshot(byte[] snapshot_cells) {
+        while (true) {
+            long start_version = version;
+            if ((start_version & 1) == 0) {
+                System.arraycopy(cells, 0, snapshot_cells, 0, cells.length);
+                VarHandle.acquireFence();
+                if (version == start_version) {
+                    return start_version >>> 1;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+
+    // Waits until there are entries after sequence, the feed ends or timeout_milliseconds pass
+    public void await_entries(long sequence, long timeout_milliseconds) throws InterruptedException {
+        synchronized (signal) {
+            if (get_sequence() <= sequence && winner == not_finished) {
+                signal.wait(timeout_milliseconds);
+            }
+        }
+    }
+
+
+    public static int get_type(long entry) {
+        return (int) (entry >>> 56);
+    }
+
+    public static int get_player(long entry) {
+        return (int) (entry >>> 48) & 0xFF;
+    }
+
+    public static int get_column(long entry) {
+        return (int) (entry >>> 32) & 0xFFFF;
+    }
+
+    public static int get_move_number(long entry) {
+        return (int) entry;
+    }
+}
@@ -0,0 +1,193 @@
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+
+// Lets spectators watch live games. Games register a SpectatorFeed; each spectator gets its own (virtual, on JDK 21+)
+// thread that reads the feed at its own pace, so a slow or stalled viewer only ever blocks itself.
+//
+// Protocol (one line each):
+//   spectator -> server: LIST                     (live game ids)
+//                        WATCH:<game id>
+//   server -> spectator: GAMES:<id>,<id>,...
+//                        SNAPSHOT:<game id>:<columns>x<rows>x<positions to win>:<moves>:<cells>
+//                        INSERT:<column>:<player>
+//                        UNDO:<column>:<player>   (the player's stone at the top of the column was taken back)
+//                        END:<winner>             (0 for a tie, -1 if the game ended without a result)
+//                        ERROR
+// <cells> has one digit per cell (0 empty, 1 or 2), bottom row first, left to right. Columns use the game's base of 1.
+// A spectator that joins mid-game, or falls too far behind, gets a SNAPSHOT and then the moves after it.
+public class SpectatorServer {
+    final int spectator_port;
+    final int column_base = 1;
+    // How long a spectator waits for a move before checking the feed again
+    final long wait_milliseconds = 1000;
+
+    final String list_command = "LIST";
+    final String watch_command = "WATCH";
+    final String error_command = "ERROR";
+
+    final ConcurrentHashMap<Long, SpectatorFeed> feeds = new ConcurrentHashMap<Long, SpectatorFeed>();
+    final ExecutorService spectator_executor = VirtualThreads.new_executor();
+
+    // Spectator counters
+    final AtomicInteger active_spectators = new AtomicInteger();
+    final AtomicLong resyncs = new AtomicLong();
+
+    ServerSocket server_socket;
+
+
+    SpectatorServer(int spectator_port) {
+        this.spectator_port = spectator_port;
+    }
+
+
+    public void add_feed(SpectatorFeed feed) {
+        feeds.put(feed.game_id, feed);
+    }
+
+
+    // Spectators already watching keep the feed until they read its end
+    public void remove_feed(SpectatorFeed feed) {
+        feeds.remove(feed.game_id, feed);
+    }
+
+
+    // Accepts spectators until stopped
+    public void start() throws IOException {
+        server_socket = new ServerSocket(spectator_port, 1024);
+        System.out.println("SpectatorServer: Listening on port: " + spectator_port);
+        try {
+            while (true) {
+                Socket socket = server_socket.accept();
+                spectator_executor.submit(() -> run_spectator(socket));
+            }
+        }
+        catch (SocketException e) {
+            System.out.println("SpectatorServer has been stopped.");
+        }
+        finally {
+            spectator_executor.shutdownNow();
+        }
+    }
+
+
+    public void run_spectator(Socket socket) {
+        active_spectators.incrementAndGet();
+        try {
+            BufferedReader socket_in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            PrintWriter socket_out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())));
+
+            String input;
+            while ((input = socket_in.readLine()) != null) {
+                if (input.equals(list_command)) {
+                    socket_out.print("GAMES:" + String.join(",", feeds.keySet().stream().map(String::valueOf)
+                        .toArray(String[]::new)) + "\n");
+                    socket_out.flush();
+                    continue;
+                }
+
+                SpectatorFeed feed = null;
+                try {
+                    String[] arguments = input.split(":");
+                    if (watch_command.equals(arguments[0])) {
+                        feed = feeds.get(Long.parseLong(arguments[1]));
+                    }
+                }
+                catch (Exception e) {}
+
+                if (feed == null) {
+                    socket_out.print(error_command + "\n");
+                    socket_out.flush();
+                    continue;
+                }
+                watch(feed, socket_out);
+                return;
+            }
+        }
+        catch (IOException e) {}
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            active_spectators.decrementAndGet();
+            try {
+                socket.close();
+            }
+            catch (IOException e) {}
+        }
+    }
+
+
+    // Sends a snapshot and then every move until the game ends
+    public void watch(SpectatorFeed feed, PrintWriter socket_out) throws IOException, InterruptedException {
+        byte[] snapshot_cells = new byte[feed.cells.length];
+        long cursor = send_snapshot(feed, snapshot_cells, socket_out);
+
+        while (true) {
+            long sequence = feed.get_sequence();
+            while (cursor < sequence) {
+                long entry = feed.get_entry(cursor);
+                // Overwritten before we got to it: skip what was missed
+                if (!feed.is_available(cursor)) {
+                    resyncs.incrementAndGet();
+                    cursor = send_snapshot(feed, snapshot_cells, socket_out);
+                    break;
+                }
+                if (SpectatorFeed.get_type(entry) == SpectatorFeed.move_entry) {
+                    socket_out.print("INSERT:" + (SpectatorFeed.get_column(entry) + column_base) + ":" +
+                        SpectatorFeed.get_player(entry) + "\n");
+                }
+                else if (SpectatorFeed.get_type(entry) == SpectatorFeed.undo_entry) {
+                    socket_out.print("UNDO:" + (SpectatorFeed.get_column(entry) + column_base) + ":" +
+                        SpectatorFeed.get_player(entry) + "\n");
+                }
+                cursor++;
+            }
+            // One write per batch of moves
+            socket_out.flush();
+            if (socket_out.checkError()) {
+                throw new IOException("Spectator disconnected");
+            }
+
+            if (feed.winner != SpectatorFeed.not_finished && cursor >= feed.get_sequence()) {
+                socket_out.print("END:" + feed.winner + "\n");
+                socket_out.flush();
+                return;
+            }
+            feed.await_entries(cursor, wait_milliseconds);
+        }
+    }
+
+
+    // Returns the sequence the snapshot corresponds to, where the spectator's cursor continues from
+    public long send_snapshot(SpectatorFeed feed, byte[] snapshot_cells, PrintWriter socket_out) {
+        long sequence = feed.get_snapshot(snapshot_cells);
+        int moves = 0;
+        StringBuilder cells_builder = new StringBuilder(snapshot_cells.length);
+        for (byte cell : snapshot_cells) {
+            cells_builder.append((char) ('0' + cell));
+            if (cell != 0) {
+                moves++;
+            }
+        }
+        socket_out.print("SNAPSHOT:" + feed.game_id + ":" + feed.columns + "x" + feed.rows + "x" +
+            feed.positions_to_win + ":" + moves + ":" + cells_builder + "\n");
+        return sequence;
+    }
+
+
+    public String get_status() {
+        return "SpectatorServer: " + feeds.size() + " live games, " + active_spectators.get() + " spectators, " +
+            resyncs.get() + " resyncs";
+    }
+
+
+    // To unblock accept() and disconnect all spectators
+    public void stop() throws IOException {
+        if (server_socket != null && !server_socket.isClosed()) {
+            server_socket.close();
+        }
+    }
+}
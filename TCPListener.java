@@ -18,13 +18,13 @@ public class TCPListener implements Callable<Socket>{
 
     @Override
     public Socket call() throws Exception {
-        System.out.println("TCPListener: Listening on local address and port: " + tcp_port);
+        Log.info("TCPListener: Listening on local address and port: " + tcp_port);
         try{
             // Initialise server socket and get new socket
             server_socket = new ServerSocket(tcp_port);
             Socket new_socket = server_socket.accept();   
               
-            System.out.println("\nTCPListener: Received new game reply.\nAddress: " +
+            Log.info(() -> "\nTCPListener: Received new game reply.\nAddress: " +
                 new_socket.getInetAddress().getHostAddress() + "\tPort: " + new_socket.getPort());
 
             // Ensure socket is closed and return new socket
@@ -32,12 +32,11 @@ public class TCPListener implements Callable<Socket>{
             return new_socket;     
         }
         catch(SocketException e) {
-            System.out.println("TCPListener has been stopped.");
+            Log.info("TCPListener has been stopped.");
             return null;
         }
         catch(Exception e) {
-            System.out.println("TCPListener could not bind to the given address and port: " + tcp_port);
-            e.printStackTrace();
+            Log.error("TCPListener could not bind to the given address and port: " + tcp_port + " (" + e + ")");
         }
         return null;
     }
@@ -0,0 +1,65 @@
+import java.util.concurrent.*;
+
+
+// A structured concurrency scope for blocking tasks, standing in for StructuredTaskScope (still a preview API).
+// Each forked task runs on its own thread from VirtualThreads, so a scope is cheap to create per match.
+// close() interrupts every task still running and waits for them, so no task outlives the block that forked it:
+//   try (TaskScope scope = new TaskScope()) {
+//       CompletableFuture<Socket> socket = scope.fork(listener);
+//       ...
+//   }
+// Tasks blocked in something interrupts do not reach (eg: ServerSocket.accept()) must be unblocked by the caller
+// (eg: with the listener's stop()) before the scope closes.
+public class TaskScope implements AutoCloseable {
+    // How long close() waits for tasks to finish before giving up on them
+    static final long close_timeout_milliseconds = 1000;
+
+    final ExecutorService executor;
+
+
+    TaskScope() {
+        this(VirtualThreads.new_executor());
+    }
+
+
+    // The scope owns executor and shuts it down on close()
+    TaskScope(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+
+    // Runs task in the scope. Its result (or exception) completes the returned future, which completes
+    // exceptionally if the scope is already closed
+    public <T> CompletableFuture<T> fork(Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<T>();
+        try {
+            executor.execute(() -> {
+                try {
+                    result.complete(task.call());
+                }
+                catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            result.completeExceptionally(new CancellationException("Scope is closed"));
+        }
+        return result;
+    }
+
+
+    // Cancels (interrupts) the tasks still running and waits for them to finish
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(close_timeout_milliseconds, TimeUnit.MILLISECONDS)) {
+                Log.warn("TaskScope: tasks still running " + close_timeout_milliseconds + " ms after being cancelled");
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+// Fixed-size hash table of searched positions, keyed by BitBoard.get_key().
+// Each slot holds the key XOR'd with one packed long, so the table never allocates after construction.
+// Colliding positions simply overwrite each other.
+// Safe to share between search threads without locks: a slot torn by two racing writers fails the XOR check
+// on read and counts as a miss instead of returning another position's entry.
+public class TranspositionTable {
+    // Bound types for stored scores
+    static final int exact = 1;
+    static final int lower_bound = 2;
+    static final int upper_bound = 3;
+
+    final int index_bits;
+    final long[] keys;
+    final long[] entries;
+
+
+    // Table of 2^index_bits slots (16 bytes each)
+    TranspositionTable(int index_bits) {
+        this.index_bits = index_bits;
+        this.keys = new long[1 << index_bits];
+        this.entries = new long[1 << index_bits];
+    }
+
+
+    // Returns the packed entry for key, 0 if it is not stored
+    public long get(long key) {
+        int index = get_index(key);
+        long entry = entries[index];
+        return (keys[index] ^ entry) == key ? entry : 0L;
+    }
+
+
+    public void put(long key, int score, int depth, int bound, int move) {
+        int index = get_index(key);
+        long entry = pack(score, depth, bound, move);
+        entries[index] = entry;
+        keys[index] = key ^ entry;
+    }
+
+
+    public void clear() {
+        java.util.Arrays.fill(keys, 0L);
+        java.util.Arrays.fill(entries, 0L);
+    }
+
+
+    // Replaces every slot with other's, which must be the same size. Not safe while other is being written
+    public void copy_from(TranspositionTable other) {
+        System.arraycopy(other.keys, 0, keys, 0, keys.length);
+        System.arraycopy(other.entries, 0, entries, 0, entries.length);
+    }
+
+
+    // Fibonacci hashing spreads the sparse board keys over the whole table
+    public int get_index(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> (Long.SIZE - index_bits));
+    }
+
+
+    // Bits 0-31: score, 32-39: depth, 40-41: bound, 42-49: move + 1
+    // bound is never 0, so a stored entry is never 0. Each field is masked to its width so an out-of-range depth or move
+    // cannot spill into the next field
+    public static long pack(int score, int depth, int bound, int move) {
+        return (score & 0xFFFFFFFFL) | ((long) (depth & 0xFF) << 32) | ((long) (bound & 0x3) << 40) |
+            ((long) ((move + 1) & 0xFF) << 42);
+    }
+
+    public static int get_score(long entry) {
+        return (int) entry;
+    }
+
+    public static int get_depth(long entry) {
+        return (int) (entry >>> 32) & 0xFF;
+    }
+
+    public static int get_bound(long entry) {
+        return (int) (entry >>> 40) & 0x3;
+    }
+
+    public static int get_move(long entry) {
+        return (int) ((entry >>> 42) & 0xFF) - 1;
+    }
+}
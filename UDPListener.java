@@ -1,89 +1,154 @@
+import java.io.IOException;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.*;
 import java.util.concurrent.*;
 
 
 // Thread class that continuously listens for UDP packets on the broadcast port with new_game_message.
 // Returns the Datagram packet found, none if halted.
 // Calling stop() will halt this thread.
-public class UDPListener implements Callable<DatagramPacket> {    
-    DatagramSocket udp_socket;
+// One channel stays bound for the whole matchmaking session and is also used to send this client's broadcasts.
+// Broadcasts carry a random nonce (NEW GAME:<port>:N<nonce>) so the listener can ignore its own instead of unbinding
+// while broadcasting. Clients that do not know about the nonce still read the port from the second field.
+public class UDPListener implements Callable<DatagramPacket> {
+    DatagramChannel udp_channel;
 
     final int broadcast_port;
     final String new_game_message;
+    final byte[] new_game_bytes;
+
+    // Identifies this client's own broadcasts
+    final long nonce = new Random().nextLong() & Long.MAX_VALUE;
+    final String nonce_field;
+
+    // Reused for every packet received
+    final ByteBuffer receive_buffer = ByteBuffer.allocate(1024);
+    // Other traffic on the broadcast port is logged at most once a second
+    static final Log.Limiter unknown_request_limiter = new Log.Limiter(1);
 
 
     UDPListener(int broadcast_port, String new_game_message){
         this.broadcast_port = broadcast_port;
         this.new_game_message = new_game_message;
+        this.new_game_bytes = new_game_message.getBytes();
+        this.nonce_field = "N" + nonce;
     }
 
-    
+
     @Override
     public DatagramPacket call() throws Exception {
-        // System.out.println("UDPListener: Listening on address: " + broadcast_address.getHostAddress() + "\tPort: " + broadcast_port);
-        System.out.println("UDPListener: Listening on port: " + broadcast_port);
+        Log.info("UDPListener: Listening on port: " + broadcast_port);
 
         try {
-            // Need to reuse address when testing two promgram instances on same machine
-            udp_socket = new DatagramSocket(null);
-            udp_socket.setReuseAddress(true);
-            udp_socket.bind(new InetSocketAddress(broadcast_port));
-            
+            DatagramChannel channel = open_channel();
+
             while(true) {
-                byte[] receive_data = new byte[1024];
-                DatagramPacket receive_packet = new DatagramPacket(receive_data, receive_data.length);
+                receive_buffer.clear();
+                SocketAddress sender;
 
                 try {
                     // Receive packet from client (blocks on receive())
-                    udp_socket.receive(receive_packet);
+                    sender = channel.receive(receive_buffer);
                 }
-                catch (SocketException e) {
-                    // When receive is unblocked, this exception is thrown
-                    System.out.println("UDPListener has been stopped.");
+                catch (ClosedChannelException e) {
+                    // When receive is unblocked this is an AsynchronousCloseException; if the channel was closed just
+                    // before receive it is a plain ClosedChannelException. Both are a normal stop
+                    Log.info("UDPListener has been stopped.");
                     return null;
                 }
+                receive_buffer.flip();
 
-                if (contains_new_game_message(receive_packet)) {
-                    return receive_packet;
+                if (contains_new_game_message(receive_buffer, sender)) {
+                    // Copy out only the packets that are handed back
+                    byte[] receive_data = new byte[receive_buffer.remaining()];
+                    receive_buffer.get(receive_data);
+                    return new DatagramPacket(receive_data, receive_data.length, sender);
                 }
             }
         }
-        catch (Exception e){
-            System.out.println("UDPListener could not bind to the given address and port: " +
-                broadcast_port);
-            e.printStackTrace();
+        catch (IOException e){
+            Log.error("UDPListener could not bind to the given address and port: " + broadcast_port + " (" + e + ")");
         }
         return null;
     }
 
-    // To unblock this thread when blocked on receive()
-    public void stop() {
-        // This will unblock receive()
-        if (udp_socket != null && !udp_socket.isClosed()) {
-            udp_socket.close();
+
+    // Binds the channel on first use; later calls reuse it
+    public synchronized DatagramChannel open_channel() throws IOException {
+        if (udp_channel == null || !udp_channel.isOpen()) {
+            udp_channel = DatagramChannel.open(StandardProtocolFamily.INET);
+            // Need to reuse address when testing two promgram instances on same machine
+            udp_channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            udp_channel.setOption(StandardSocketOptions.SO_BROADCAST, true);
+            udp_channel.bind(new InetSocketAddress(broadcast_port));
         }
+        return udp_channel;
     }
 
 
-    // Checks if packet contains new game message
-    public boolean contains_new_game_message(DatagramPacket receive_packet) {
-        // Get message
-        String received_message = new String(receive_packet.getData(), 0, receive_packet.getLength());
+    // Sends message (eg: NEW GAME:<port>) with this listener's nonce appended, through the listening channel
+    public void send_broadcast(InetAddress broadcast_address, String message) throws IOException {
+        byte[] send_data = (message + ":" + nonce_field).getBytes();
+        open_channel().send(ByteBuffer.wrap(send_data), new InetSocketAddress(broadcast_address, broadcast_port));
+    }
 
-        try {
-            // Check if packet contains new game message
-            if (new_game_message.equals(received_message.split(":")[0])) {
-                System.out.println("\nUDPListener: Found new game request: " + received_message + "\nAddress: " +
-                    receive_packet.getAddress().getHostAddress() + "\tPort: " + receive_packet.getPort());
-                return true;
+
+    // To unblock this thread when blocked on receive() and unbind the port
+    public synchronized void stop() {
+        if (udp_channel != null && udp_channel.isOpen()) {
+            try {
+                udp_channel.close();
             }
+            catch (IOException e) {}
         }
-        // If message isn't formatted correctly or doesn't contain new game message
-        catch (Exception e) {}
+    }
 
-        System.out.println(
-            "UDPListener: Received unknown request: " + received_message +
-            "\nAddress: " + receive_packet.getAddress().getHostAddress() + "\tPort: " + receive_packet.getPort());
+
+    // Checks if the received bytes contain a new game message from another client
+    public boolean contains_new_game_message(ByteBuffer received, SocketAddress sender) {
+        if (starts_with_new_game_message(received)) {
+            String received_message = get_message(received);
+            // Our own broadcast looping back
+            if (Arrays.asList(received_message.split(":")).contains(nonce_field)) {
+                return false;
+            }
+            Log.info(() -> "\nUDPListener: Found new game request: " + received_message + "\nAddress: " +
+                get_address(sender));
+            return true;
+        }
+
+        Log.log(Log.info, unknown_request_limiter, () ->
+            "UDPListener: Received unknown request: " + get_message(received) + "\nAddress: " + get_address(sender));
         return false;
     }
+
+
+    // True if the message's first field is new_game_message, checked on the bytes
+    public boolean starts_with_new_game_message(ByteBuffer received) {
+        int start = received.position();
+        if (received.remaining() < new_game_bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < new_game_bytes.length; i++) {
+            if (received.get(start + i) != new_game_bytes[i]) {
+                return false;
+            }
+        }
+        return received.remaining() == new_game_bytes.length || received.get(start + new_game_bytes.length) == ':';
+    }
+
+
+    public String get_address(SocketAddress sender) {
+        InetSocketAddress address = (InetSocketAddress) sender;
+        return address.getAddress().getHostAddress() + "\tPort: " + address.getPort();
+    }
+
+
+    // Received bytes as text, without moving the buffer's position
+    public String get_message(ByteBuffer received) {
+        return new String(received.array(), received.arrayOffset() + received.position(), received.remaining());
+    }
 }
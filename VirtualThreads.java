@@ -0,0 +1,33 @@
+import java.util.concurrent.*;
+
+
+// Executors for blocking tasks (sockets, matchmaking, hosted sessions).
+// On JDK 21+ each task gets its own virtual thread, so thousands of blocked tasks cost little memory;
+// on older runtimes this falls back to a cached pool of platform threads.
+public class VirtualThreads {
+    // Looked up reflectively so the project still compiles and runs on JDK 17
+    static final boolean available = has_virtual_threads();
+
+
+    // New executor running each task on its own (virtual, if available) thread
+    public static ExecutorService new_executor() {
+        if (available) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            }
+            catch (ReflectiveOperationException e) {}
+        }
+        return Executors.newCachedThreadPool();
+    }
+
+
+    public static boolean has_virtual_threads() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        }
+        catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+// Zobrist keys for position hashing. A position's hash is the XOR of one key per stone, so boards keep it up to date
+// with a single XOR when a stone is dropped and the same XOR when it is taken back.
+// Keys are derived from (cell, player) with the SplitMix64 finaliser instead of a random table, so every board size
+// up to Board.maximum_size gets the same keys in every process without storing them.
+public class Zobrist {
+    static final long seed = 0x5DEECE66DL;
+
+
+    // Key for target_player's stone on cell column * rows + row, the same on every Board
+    public static long get_key(int cell, int target_player) {
+        long key = seed + (cell * 2L + target_player) * 0x9E3779B97F4A7C15L;
+        key = (key ^ (key >>> 30)) * 0xBF58476D1CE4E5B9L;
+        key = (key ^ (key >>> 27)) * 0x94D049BB133111EBL;
+        return key ^ (key >>> 31);
+    }
+}